@@ -0,0 +1,84 @@
+package com.somnath.benchmarks;
+
+import com.somnath.common.BitBuffer;
+import com.somnath.common.ErrorCorrectingCode;
+import com.somnath.common.ErrorCorrectingCodes;
+import com.somnath.common.HammingUtil;
+import com.somnath.common.Message;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encode / correct / decode over realistic payload sizes.
+ * 128 bytes is one 1024-bit RSA block; the larger sizes cover long or future (non-RSA) payloads.
+ * The *String benchmarks measure the old '0'/'1' debug codec for comparison.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HammingBenchmark {
+
+    @Param({"128", "4096", "65536"})
+    public int payloadSize;
+
+    @Param({ErrorCorrectingCodes.HAMMING_7_4, ErrorCorrectingCodes.SECDED_72_64})
+    public String code;
+
+    private ErrorCorrectingCode ecc;
+    private byte[] payload;
+    private BitBuffer encoded;
+    private BitBuffer errored;
+    private BitBuffer corrected;
+    private String erroredString;
+    private String correctedString;
+    private Message message;
+
+    @Setup
+    public void setUp() {
+        ecc = ErrorCorrectingCodes.forName(code);
+        payload = new byte[payloadSize];
+        new Random(42).nextBytes(payload);
+        encoded = ecc.encode(payload);
+        errored = HammingUtil.simulateError(encoded);
+        message = new Message("bench", "bench", null, "bench");
+        corrected = ecc.correctError(errored, message);
+
+        erroredString = HammingUtil.simulateError(HammingUtil.encode(HammingUtil.bytesToBinaryString(payload)));
+        correctedString = HammingUtil.correctError(erroredString, message);
+    }
+
+    @Benchmark
+    public BitBuffer encode() {
+        return ecc.encode(payload);
+    }
+
+    @Benchmark
+    public BitBuffer correctError() {
+        return ecc.correctError(errored, message);
+    }
+
+    @Benchmark
+    public byte[] decode() {
+        return ecc.decode(corrected, payloadSize);
+    }
+
+    @Benchmark
+    public String encodeString() {
+        return HammingUtil.encode(HammingUtil.bytesToBinaryString(payload));
+    }
+
+    @Benchmark
+    public String correctErrorString() {
+        return HammingUtil.correctError(erroredString, message);
+    }
+
+    @Benchmark
+    public byte[] decodeString() {
+        return HammingUtil.binaryStringToBytes(HammingUtil.decode(correctedString));
+    }
+}
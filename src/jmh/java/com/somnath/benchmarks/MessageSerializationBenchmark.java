@@ -0,0 +1,76 @@
+package com.somnath.benchmarks;
+
+import com.somnath.common.BinaryFrameCodec;
+import com.somnath.common.Message;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Java-serialization round trip of a fully processed Message, as routed by the server,
+ * against the binary frame codec that replaces it on the wire.
+ * A fresh ObjectOutputStream per operation measures the worst case (class descriptors every time).
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MessageSerializationBenchmark {
+
+    private Message message;
+    private byte[] serialized;
+    private byte[] frame;
+
+    @Setup
+    public void setUp() throws Exception {
+        message = PipelineFixtures.processedMessage(PipelineFixtures.TYPICAL_TEXT);
+        serialized = serialize();
+        frame = encodeFrame();
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(message);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Benchmark
+    public Object deserialize() throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized))) {
+            return in.readObject();
+        }
+    }
+
+    @Benchmark
+    public byte[] encodeFrame() throws IOException {
+        return BinaryFrameCodec.encode(message);
+    }
+
+    @Benchmark
+    public Object decodeFrame() throws IOException {
+        return BinaryFrameCodec.decode(frame, BinaryFrameCodec.HEADER_LENGTH, frame.length - BinaryFrameCodec.HEADER_LENGTH);
+    }
+
+    @Benchmark
+    public Object frameRoundTrip() throws IOException {
+        byte[] encoded = BinaryFrameCodec.encode(message);
+        return BinaryFrameCodec.decode(encoded, BinaryFrameCodec.HEADER_LENGTH, encoded.length - BinaryFrameCodec.HEADER_LENGTH);
+    }
+
+    @Benchmark
+    public Object roundTrip() throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialize()))) {
+            return in.readObject();
+        }
+    }
+}
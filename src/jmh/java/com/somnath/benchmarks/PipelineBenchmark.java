@@ -0,0 +1,66 @@
+package com.somnath.benchmarks;
+
+import com.somnath.common.AESUtil;
+import com.somnath.common.ErrorCorrectingCode;
+import com.somnath.common.ErrorCorrectingCodes;
+import com.somnath.common.Message;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import javax.crypto.SecretKey;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full client-to-server path for one message: client pipeline, serialization over an in-memory
+ * "socket", server pipeline, and serialization of the routed result.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PipelineBenchmark {
+
+    @Param({ErrorCorrectingCodes.HAMMING_7_4, ErrorCorrectingCodes.SECDED_72_64})
+    public String code;
+
+    private ErrorCorrectingCode ecc;
+    private SecretKey sessionKey;
+
+    @Setup
+    public void setUp() throws Exception {
+        ecc = ErrorCorrectingCodes.forName(code);
+        sessionKey = AESUtil.generateSessionKey();
+    }
+
+    @Benchmark
+    public Message clientSide() throws Exception {
+        return PipelineFixtures.clientSide(PipelineFixtures.TYPICAL_TEXT, sessionKey, ecc);
+    }
+
+    @Benchmark
+    public byte[] clientToServer() throws Exception {
+        Message sent = PipelineFixtures.clientSide(PipelineFixtures.TYPICAL_TEXT, sessionKey, ecc);
+        Message received = (Message) readObject(writeObject(sent));
+        Message processed = PipelineFixtures.serverSide(received, sessionKey);
+        return writeObject(processed); // What goes out to each recipient
+    }
+
+    private static byte[] writeObject(Object object) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(4096);
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(object);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Object readObject(byte[] bytes) throws Exception {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return in.readObject();
+        }
+    }
+}
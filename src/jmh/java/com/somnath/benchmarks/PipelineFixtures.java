@@ -0,0 +1,61 @@
+package com.somnath.benchmarks;
+
+import com.somnath.common.AESUtil;
+import com.somnath.common.BitBuffer;
+import com.somnath.common.ErrorCorrectingCode;
+import com.somnath.common.ErrorCorrectingCodes;
+import com.somnath.common.HammingUtil;
+import com.somnath.common.Message;
+import com.somnath.common.RSAUtil;
+import com.somnath.server.MessageProcessor;
+
+import javax.crypto.SecretKey;
+import java.security.KeyPair;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * The client and server halves of the message pipeline, step for step as in Client.sendMessage
+ * and Server.ClientHandler.run, without the sockets.
+ */
+final class PipelineFixtures {
+
+    static final String TYPICAL_TEXT = "Hey, are we still meeting at the library at five? I'll bring the notes.";
+
+    private static KeyPair keyPair;
+
+    private PipelineFixtures() {
+    }
+
+    static synchronized KeyPair keyPair() throws NoSuchAlgorithmException {
+        if (keyPair == null) {
+            keyPair = RSAUtil.generateKeyPair();
+        }
+        return keyPair;
+    }
+
+    /** Client side: AES-GCM encrypt with the session key, ECC-encode and inject an error. */
+    static Message clientSide(String text, SecretKey sessionKey, ErrorCorrectingCode ecc) throws Exception {
+        Message message = new Message("alice", text, null, text);
+        byte[] encrypted = AESUtil.encrypt(RSAUtil.stringToBytes(text), sessionKey);
+        message.setCipher(Message.CIPHER_AES_GCM);
+        message.setEncryptedContentBase64(RSAUtil.bytesToBase64(encrypted));
+        BitBuffer encoded = ecc.encode(encrypted);
+        message.setEccScheme(ecc.getName());
+        message.setPayloadLength(encrypted.length);
+        message.setHammingEncoded(encoded);
+        message.setErroredHamming(HammingUtil.simulateError(encoded));
+        return message;
+    }
+
+    /** Server side: correct, decode and decrypt, exactly as Server does. */
+    static Message serverSide(Message message, SecretKey sessionKey) throws Exception {
+        MessageProcessor.process(message, sessionKey, keyPair().getPrivate());
+        return message;
+    }
+
+    /** A message as the server routes it to recipients. */
+    static Message processedMessage(String text) throws Exception {
+        SecretKey sessionKey = AESUtil.generateSessionKey();
+        return serverSide(clientSide(text, sessionKey, ErrorCorrectingCodes.configured()), sessionKey);
+    }
+}
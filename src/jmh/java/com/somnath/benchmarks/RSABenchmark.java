@@ -0,0 +1,42 @@
+package com.somnath.benchmarks;
+
+import com.somnath.common.RSAUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.security.KeyPair;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * RSAUtil encrypt (client side) and decrypt (server side) of a maximum-size 117-byte message.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RSABenchmark {
+
+    private KeyPair keyPair;
+    private byte[] plaintext;
+    private byte[] ciphertext;
+
+    @Setup
+    public void setUp() throws Exception {
+        keyPair = RSAUtil.generateKeyPair();
+        plaintext = new byte[117]; // PKCS#1 v1.5 limit for a 1024-bit key
+        new Random(42).nextBytes(plaintext);
+        ciphertext = RSAUtil.encrypt(plaintext, keyPair.getPublic());
+    }
+
+    @Benchmark
+    public byte[] encrypt() throws Exception {
+        return RSAUtil.encrypt(plaintext, keyPair.getPublic());
+    }
+
+    @Benchmark
+    public byte[] decrypt() throws Exception {
+        return RSAUtil.decrypt(ciphertext, keyPair.getPrivate());
+    }
+}
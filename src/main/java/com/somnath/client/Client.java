@@ -1,38 +1,164 @@
 package com.somnath.client;
 
+import com.somnath.common.AESUtil;
+import com.somnath.common.BitBuffer;
+import com.somnath.common.ChatEvents;
+import com.somnath.common.ChatThreads;
+import com.somnath.common.ContentCompressor;
+import com.somnath.common.ErrorCorrectingCode;
+import com.somnath.common.ErrorCorrectingCodes;
 import com.somnath.common.Message;
+import com.somnath.common.MessageBatch;
+import com.somnath.common.MessageChannel;
+import com.somnath.common.MessageChannels;
+import com.somnath.common.PipelineTrace;
+import com.somnath.common.ResumeRequest;
+import com.somnath.common.SequencedFrame;
+import com.somnath.common.SessionTicket;
+import com.somnath.common.TraceRequest;
 import com.somnath.common.RSAUtil;
 import com.somnath.common.HammingUtil;
-import com.somnath.ui.ChatController;
 
+import javax.crypto.SecretKey;
 import java.io.*;
 import java.net.*;
 import java.security.PublicKey;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 
 public class Client {
 
+    // Client-side batching: messages sent within this many milliseconds of each other go out as one
+    // MessageBatch frame (0, the default, sends every message right away)
+    private static final long BATCH_WINDOW_MILLIS = Long.getLong("chat.batch.windowMillis", 0);
+    private static final int BATCH_MAX_MESSAGES = Math.max(1, Integer.getInteger("chat.batch.maxMessages", 32));
+    // Messages that can wait for the sender thread before sendMessageAsync refuses more
+    private static final int SEND_QUEUE_CAPACITY = Math.max(1, Integer.getInteger("chat.client.sendQueue", 1024));
+    // After a lost connection: up to this many reconnect attempts (0 = never reconnect), waiting initialMillis
+    // before the first and doubling up to maxMillis, with jitter so clients dropped together do not return together
+    private static final int RECONNECT_ATTEMPTS = Math.max(0, Integer.getInteger("chat.reconnect.maxAttempts", 10));
+    private static final long RECONNECT_INITIAL_MILLIS = Math.max(1, Long.getLong("chat.reconnect.initialMillis", 250));
+    private static final long RECONNECT_MAX_MILLIS = Math.max(1, Long.getLong("chat.reconnect.maxMillis", 10_000));
+    // Sent messages kept to resend after a resume, for the ones the server turns out not to have received
+    private static final int RESEND_BUFFER = Math.max(1, Integer.getInteger("chat.resume.bufferMessages", 512));
+
+    /**
+     * A typed message (or a trace request for a lean message) waiting for the sender thread,
+     * and the future its caller holds.
+     */
+    private static final class PendingSend {
+        final String text;
+        final Message traceFor; // Set instead of text for a trace request
+        final CompletableFuture<Void> result;
+
+        PendingSend(String text, CompletableFuture<Void> result) {
+            this(text, null, result);
+        }
+
+        PendingSend(String text, Message traceFor, CompletableFuture<Void> result) {
+            this.text = text;
+            this.traceFor = traceFor;
+            this.result = result;
+        }
+    }
+
+    /**
+     * Thrown on the listener thread when routed frames were skipped (a full outbound queue on the server dropped
+     * them), to resume the session and have the server replay them from its buffer.
+     */
+    private static final class MissedFramesException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        MissedFramesException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * A message written on the current session, numbered like the server counts what it receives.
+     */
+    private static final class SentMessage {
+        final long index;
+        final Message message;
+        final CompletableFuture<Void> result;
+
+        SentMessage(long index, Message message, CompletableFuture<Void> result) {
+            this.index = index;
+            this.message = message;
+            this.result = result;
+        }
+    }
+
     private String host;
     private int port;
-    public Socket socket; // Made public for the UI controller to check state
-    private ObjectInputStream inputStream;
-    private ObjectOutputStream outputStream;
+    public volatile Socket socket; // Made public for the UI controller to check state; replaced on reconnect
+    private volatile MessageChannel channel; // Binary frames, or Java serialization in legacy mode (-Dchat.wire)
     private PublicKey serverPublicKey;
+    private SecretKey sessionKey; // AES-GCM key for this connection, sent to the server wrapped with its public key
+    private long keyGeneration; // Bumped by every logIn, so a message encrypted meanwhile is noticed; guarded by writeLock
     private String username;
-    private ChatController controller;
+    private ClientListener listener; // The UI, or a headless stand-in
+    // Lean messages whose pipeline trace has been requested, by trace id
+    private final Map<Long, Message> pendingTraces = new ConcurrentHashMap<>();
+    // Guards writes on the channel (the sender thread, the batch window and a reconnect all write on it).
+    // A lock rather than synchronized, so a virtual thread blocked in the write does not pin its carrier.
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final ErrorCorrectingCode ecc = ErrorCorrectingCodes.configured(); // Chosen per deployment (-Dchat.ecc)
+    // Messages waiting for the batch window to close, guarded by writeLock
+    private final List<Message> pendingBatch = new ArrayList<>();
+    private final List<CompletableFuture<Void>> pendingBatchResults = new ArrayList<>(); // Completed when the batch is written
+    // Everything typed (and every trace request) goes through this queue to one sender thread, so encrypting,
+    // encoding and the socket write never run on the caller's (UI) thread and messages leave in the order they were sent
+    private final BlockingQueue<PendingSend> sendQueue = new LinkedBlockingQueue<>(SEND_QUEUE_CAPACITY);
+    private volatile Thread sender;
+    private volatile Thread listenerThread;
+    private volatile boolean closed;
+    // Session resume: the token from the server's SessionTicket, and the last routed frame received
+    private volatile byte[] sessionToken;
+    private long lastSequence; // Listener thread only
+    private long resyncedAt = -1; // lastSequence when a gap last forced a resume; listener thread only
+    // Messages written on this session, oldest first, until a resume shows the server has them; guarded by writeLock
+    private final ArrayDeque<SentMessage> unacknowledged = new ArrayDeque<>();
+    private long sentCount;
+    private volatile boolean reconnecting; // Changed under writeLock; the sender waits for reconnected meanwhile
+    private final Condition reconnected = writeLock.newCondition();
+    private ScheduledExecutorService batchFlusher; // Closes batch windows; only when batching is on
 
     // Regex to parse @username <message>
     // Captures username in group 1, message in group 2
     private static final Pattern PRIVATE_MESSAGE_PATTERN = Pattern.compile("^@(\\w+)\\s+(.*)");
 
 
-    public Client(String host, int port, String username, ChatController controller) {
+    public Client(String host, int port, String username, ClientListener listener) {
         this.host = host;
         this.port = port;
         this.username = username;
-        this.controller = controller;
+        this.listener = listener;
+        if (BATCH_WINDOW_MILLIS > 0) {
+            batchFlusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "client-batcher-" + username);
+                t.setDaemon(true);
+                return t;
+            });
+        }
     }
 
     public void startClient() {
@@ -41,87 +167,374 @@ public class Client {
             socket = new Socket(host, port);
             System.out.println("Connected to server: " + socket);
 
-            // Initialize streams (Output first to avoid deadlock)
-            outputStream = new ObjectOutputStream(socket.getOutputStream());
-            inputStream = new ObjectInputStream(socket.getInputStream());
+            // Initialize the message channel (-Dchat.wire must match the server's)
+            channel = MessageChannels.open(socket);
 
             // 2. Receive Server's Public Key
-            serverPublicKey = (PublicKey) inputStream.readObject();
+            serverPublicKey = (PublicKey) channel.readObject();
             System.out.println("Received server public key.");
 
-            // 3. Send Client's Username to Server
-            outputStream.writeObject(username);
-            outputStream.flush();
-            System.out.println("Sent username '" + username + "' to server.");
+            // 3. Send Client's Username and session key to Server
+            logIn(channel);
 
             // Server might deny the connection if username is taken.
-            // We need to wait for a response or assume success if no immediate error.
-            // A more robust approach would be for the server to send a success/failure confirmation object.
-            // For this implementation, we'll proceed assuming success unless disconnected.
+            // If it accepts, its SessionTicket arrives on the listener thread and makes the session resumable.
 
-            // 4. Start a thread to listen for incoming messages
-            new Thread(this::listenForMessages).start();
+            // 4. Start a thread to listen for incoming messages, and the one that sends queued messages
+            listenerThread = ChatThreads.start("client-listener-" + username, this::listenForMessages);
+            sender = ChatThreads.start("client-sender-" + username, this::drainSendQueue);
 
         } catch (ConnectException e) {
             System.err.println("Connection refused. Is the server running?");
-            controller.displayStatus("Connection failed: Server refused connection.");
+            listener.displayStatus("Connection failed: Server refused connection.");
         } catch (UnknownHostException e) {
             System.err.println("Unknown host: " + host);
-            controller.displayStatus("Connection failed: Unknown host.");
+            listener.displayStatus("Connection failed: Unknown host.");
         } catch (IOException e) {
             System.err.println("IO error during connection setup: " + e.getMessage());
             e.printStackTrace();
-            controller.displayStatus("Connection failed: IO Error. See console.");
+            listener.displayStatus("Connection failed: IO Error. See console.");
         } catch (ClassNotFoundException e) {
             System.err.println("Received unexpected data from server during key exchange: " + e.getMessage());
             e.printStackTrace();
-            controller.displayStatus("Connection failed: Protocol Error. See console.");
+            listener.displayStatus("Connection failed: Protocol Error. See console.");
+        } catch (Exception e) {
+            System.err.println("Session key setup failed: " + e.getMessage());
+            e.printStackTrace();
+            listener.displayStatus("Connection failed: Key exchange error. See console.");
         }
     }
 
-    // Thread method to continuously listen for messages from the server
+    // Sends the username and a fresh AES session key, wrapped with the server's public key.
+    // Every message after this is AES-GCM encrypted, so there is no RSA size limit
+    // and the server does one private-key operation per connection instead of per message.
+    private void logIn(MessageChannel target) throws Exception {
+        target.writeObject(username);
+        target.flush();
+        System.out.println("Sent username '" + username + "' to server.");
+
+        sessionKey = AESUtil.generateSessionKey();
+        keyGeneration++;
+        target.writeObject(AESUtil.wrapKey(sessionKey, serverPublicKey));
+        target.flush();
+        System.out.println("Sent wrapped session key to server.");
+    }
+
+    // Thread method to continuously listen for messages from the server, reconnecting when the connection drops
     private void listenForMessages() {
+        boolean resync;
+        do {
+            resync = readMessages();
+        } while (!closed && reconnect(resync));
+        closeClient(); // Clean up resources
+    }
+
+    // Reads from the current connection until it fails; true if it stopped to fetch missed frames again
+    private boolean readMessages() {
         try {
             Object receivedObject;
-            while (socket.isConnected() && (receivedObject = inputStream.readObject()) != null) {
-                // Server sends back the processed Message object
-                if (receivedObject instanceof Message) {
-                    Message receivedMessage = (Message) receivedObject;
-                    // Pass the complete message object to the UI controller for display.
-                    // The UI will decide how to render it based on its fields (sender, recipient, etc.)
-                    System.out.println("Client received message object. Final Text: '" + receivedMessage.getFinalDecryptedContent() + "'");
-                    controller.displayMessage(receivedMessage); // Update the UI
-                } else {
-                    System.err.println("Received unexpected object type from server: " + receivedObject.getClass().getName());
-                }
+            while (socket.isConnected() && (receivedObject = channel.readObject()) != null) {
+                handleFrame(receivedObject);
             }
+        } catch (MissedFramesException e) {
+            System.out.println(e.getMessage() + " Resuming the session to have them replayed.");
+            return true;
         } catch (SocketException e) {
             System.out.println("Disconnected from server (SocketException).");
-            controller.displayStatus("Disconnected from server.");
+            listener.displayStatus("Disconnected from server.");
         } catch (EOFException e) {
             System.out.println("Disconnected from server (EOFException).");
-            controller.displayStatus("Disconnected from server.");
+            listener.displayStatus("Disconnected from server.");
         } catch (IOException e) {
             System.err.println("IO error while listening for messages: " + e.getMessage());
             e.printStackTrace();
-            controller.displayStatus("Error receiving message. See console.");
+            listener.displayStatus("Error receiving message. See console.");
         } catch (ClassNotFoundException e) {
             System.err.println("Received unknown object from server: " + e.getMessage());
             e.printStackTrace();
-            controller.displayStatus("Error processing received data. See console.");
+            listener.displayStatus("Error processing received data. See console.");
+        }
+        return false;
+    }
+
+    private void handleFrame(Object receivedObject) throws MissedFramesException {
+        if (receivedObject instanceof SequencedFrame) {
+            // Routed frames are numbered per session; after a resume the server replays from our last one
+            SequencedFrame sequenced = (SequencedFrame) receivedObject;
+            if (sequenced.getSequence() <= lastSequence) {
+                return; // Already received before the reconnect
+            }
+            long missed = sequenced.getSequence() - lastSequence - 1;
+            if (missed > 0) {
+                // Still in the session's replay buffer, unless a resume from this same point already came up short
+                if (RECONNECT_ATTEMPTS > 0 && sessionToken != null && resyncedAt != lastSequence) {
+                    resyncedAt = lastSequence;
+                    throw new MissedFramesException("Missed " + missed + " frame(s) after #" + lastSequence + ".");
+                }
+                System.err.println("Missed " + missed + " frame(s) after #" + lastSequence + "; the server no longer has them.");
+                listener.displayStatus(missed + " message(s) could not be delivered.");
+            }
+            lastSequence = sequenced.getSequence();
+            receivedObject = sequenced.getFrame();
+        }
+        // Server sends back the processed Message object
+        if (receivedObject instanceof Message) {
+            Message receivedMessage = (Message) receivedObject;
+            // Pass the complete message object to the listener (the UI controller) for display.
+            // The UI will decide how to render it based on its fields (sender, recipient, etc.)
+            System.out.println("Client received message object. Final Text: '" + receivedMessage.getFinalDecryptedContent() + "'");
+            listener.displayMessage(receivedMessage); // Update the UI (or whatever listens)
+        } else if (receivedObject instanceof PipelineTrace) {
+            // Details for a lean message, requested when the user pressed "Show Details"
+            PipelineTrace trace = (PipelineTrace) receivedObject;
+            Message pending = pendingTraces.remove(trace.getTraceId());
+            if (pending != null) {
+                listener.applyTrace(pending, trace);
+            }
+        } else if (receivedObject instanceof SessionTicket) {
+            // The server accepted our login; this token lets us resume the session after a dropped connection
+            SessionTicket ticket = (SessionTicket) receivedObject;
+            if (!ticket.isRefused()) {
+                sessionToken = ticket.getToken();
+            }
+        } else {
+            System.err.println("Received unexpected object type from server: " + receivedObject.getClass().getName());
+        }
+    }
+
+    // Reconnects with exponential backoff and resumes the session; false if it gave up (or reconnecting is off).
+    // A resync (missed frames on a live connection) makes its first attempt right away
+    private boolean reconnect(boolean resync) {
+        if (RECONNECT_ATTEMPTS == 0 || sessionToken == null) {
+            return false;
+        }
+        writeLock.lock();
+        try {
+            reconnecting = true;
         } finally {
-            closeClient(); // Clean up resources
+            writeLock.unlock();
+        }
+        long delay = RECONNECT_INITIAL_MILLIS;
+        for (int attempt = 1; attempt <= RECONNECT_ATTEMPTS && !closed; attempt++) {
+            if (resync && attempt == 1) {
+                listener.displayStatus("Fetching missed messages...");
+            } else {
+                listener.displayStatus("Connection lost. Reconnecting (attempt " + attempt + " of " + RECONNECT_ATTEMPTS + ")...");
+                try {
+                    // Wait between half and all of the current delay
+                    Thread.sleep(delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1));
+                } catch (InterruptedException e) {
+                    return false; // closeClient()
+                }
+            }
+            try {
+                resume();
+                return true;
+            } catch (Exception e) {
+                System.err.println("Reconnect attempt " + attempt + " failed: " + e.getMessage());
+            }
+            delay = Math.min(delay * 2, RECONNECT_MAX_MILLIS);
+        }
+        if (!closed) {
+            listener.displayStatus("Could not reconnect to server.");
         }
+        return false;
     }
 
-    // Method to send a message from the client UI
-    public void sendMessage(String fullOriginalText) {
-        if (socket == null || !socket.isConnected() || outputStream == null || serverPublicKey == null) {
-            System.err.println("Not connected to server or server public key not received.");
-            controller.displayStatus("Cannot send: Not connected or no server key.");
+    // One reconnect attempt: a new connection that resumes the session (same session key, no new key exchange),
+    // or logs in again if the server no longer has the session
+    private void resume() throws Exception {
+        Socket newSocket = new Socket(host, port);
+        boolean resumed;
+        try {
+            MessageChannel newChannel = MessageChannels.open(newSocket);
+            PublicKey newServerKey = (PublicKey) newChannel.readObject();
+            newChannel.writeObject(new ResumeRequest(username, sessionToken, lastSequence));
+            newChannel.flush();
+            Object reply = newChannel.readObject();
+            if (!(reply instanceof SessionTicket)) {
+                throw new IOException("Unexpected reply to resume request: " + reply.getClass().getName());
+            }
+            SessionTicket ticket = (SessionTicket) reply;
+            resumed = !ticket.isRefused();
+
+            writeLock.lock();
+            try {
+                if (resumed) {
+                    resendUnacknowledged(newChannel, ticket.getReceivedCount());
+                } else {
+                    // The session expired or the server restarted: start a new one. Whatever was in flight is
+                    // encrypted with the old session key, so it cannot be sent again.
+                    serverPublicKey = newServerKey;
+                    logIn(newChannel);
+                    IOException lost = new IOException("Session expired before the server confirmed the message");
+                    unacknowledged.forEach(sent -> sent.result.completeExceptionally(lost));
+                    unacknowledged.clear();
+                    pendingBatchResults.forEach(result -> result.completeExceptionally(lost));
+                    pendingBatchResults.clear();
+                    pendingBatch.clear();
+                    sentCount = 0;
+                    lastSequence = 0;
+                    resyncedAt = -1;
+                    sessionToken = null; // The new session's ticket follows
+                }
+                MessageChannel oldChannel = channel;
+                Socket oldSocket = socket;
+                channel = newChannel;
+                socket = newSocket;
+                closeQuietly(oldChannel, oldSocket);
+                // Trace replies are not replayed, so a request still pending died with the old connection; opening
+                // the message's details again asks anew
+                pendingTraces.clear();
+                reconnecting = false;
+                reconnected.signalAll();
+            } finally {
+                writeLock.unlock();
+            }
+        } catch (Exception e) {
+            newSocket.close();
+            throw e;
+        }
+        System.out.println(resumed ? "Session resumed after #" + lastSequence + "." : "Session expired; logged in again.");
+        listener.displayStatus(resumed ? "Reconnected." : "Reconnected as a new session; messages sent while disconnected may be lost.");
+    }
+
+    // Drops what the server says it already has and writes the rest again, in order. Call with writeLock held.
+    private void resendUnacknowledged(MessageChannel target, long receivedCount) throws IOException {
+        while (!unacknowledged.isEmpty() && unacknowledged.peekFirst().index <= receivedCount) {
+            unacknowledged.pollFirst().result.complete(null);
+        }
+        if (unacknowledged.isEmpty()) {
+            return;
+        }
+        if (unacknowledged.peekFirst().index > receivedCount + 1) {
+            System.err.println((unacknowledged.peekFirst().index - receivedCount - 1) + " sent message(s) were no longer buffered and are lost.");
+        }
+        for (SentMessage sent : unacknowledged) {
+            target.writeObject(sent.message);
+        }
+        target.flush();
+        for (SentMessage sent : unacknowledged) {
+            sent.result.complete(null);
+        }
+        System.out.println("Resent " + unacknowledged.size() + " message(s) the server had not received.");
+    }
+
+    // Keeps a written message until a resume shows whether the server got it. Call with writeLock held.
+    private void recordSent(Message msg, CompletableFuture<Void> result) {
+        if (RECONNECT_ATTEMPTS == 0) {
             return;
         }
+        unacknowledged.addLast(new SentMessage(++sentCount, msg, result));
+        if (unacknowledged.size() > RESEND_BUFFER) {
+            // Normally long since written; only fails a message if more than the buffer went into a dead connection
+            unacknowledged.pollFirst().result.completeExceptionally(new IOException("Dropped from the resend buffer"));
+        }
+    }
+
+    // A write failed. If the session can be resumed, the messages stay in the resend buffer and the socket is
+    // closed so the listener reconnects now; returns false if they have to fail instead. Call with writeLock held.
+    private boolean resendAfterReconnect(IOException e) {
+        if (RECONNECT_ATTEMPTS == 0 || sessionToken == null || closed) {
+            return false;
+        }
+        System.err.println("Send failed (" + e.getMessage() + "); resending after reconnecting.");
+        closeQuietly(null, socket);
+        return true;
+    }
 
+    // Waits while the listener reconnects. Call with writeLock held.
+    private void awaitConnection() throws IOException, InterruptedException {
+        while (reconnecting && !closed) {
+            reconnected.await();
+        }
+        if (closed) {
+            throw new IOException("Client closed");
+        }
+    }
+
+    private static void closeQuietly(MessageChannel oldChannel, Socket oldSocket) {
+        try {
+            if (oldChannel != null) oldChannel.close();
+        } catch (IOException e) {
+            // Already broken
+        }
+        try {
+            if (oldSocket != null) oldSocket.close();
+        } catch (IOException e) {
+            // Already broken
+        }
+    }
+
+    /**
+     * Queues a message for the sender thread and returns at once. The future completes when the message has
+     * been written to the server (or to the open batch's frame), and fails if the client is not connected,
+     * the send queue (-Dchat.client.sendQueue) is full, encoding or the write fails, or the client closes first.
+     */
+    public CompletableFuture<Void> sendMessageAsync(String fullOriginalText) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        if (closed || sender == null) { // Accepted while reconnecting; sent once the session is resumed
+            result.completeExceptionally(new IllegalStateException("Not connected to server"));
+            return result;
+        }
+        if (!sendQueue.offer(new PendingSend(fullOriginalText, result))) {
+            result.completeExceptionally(new RejectedExecutionException("Too many messages waiting to be sent"));
+        } else if (closed) {
+            failQueuedSends(); // Closed while we were queueing; the sender thread may already be gone
+        }
+        return result;
+    }
+
+    // Sends a message and waits until it is written; failures are reported to the listener
+    public void sendMessage(String fullOriginalText) {
+        try {
+            sendMessageAsync(fullOriginalText).join();
+        } catch (CompletionException | CancellationException e) {
+            if (e.getCause() instanceof IllegalStateException) {
+                System.err.println("Not connected to server or server public key not received.");
+                listener.displayStatus("Cannot send: Not connected or no server key.");
+            } else {
+                listener.displayStatus("Error sending message. See console.");
+            }
+        }
+    }
+
+    // Sender thread: encodes and writes queued messages one at a time, until the client closes
+    private void drainSendQueue() {
+        try {
+            while (!closed) {
+                PendingSend next = sendQueue.take();
+                try {
+                    if (next.traceFor != null) {
+                        writeTraceRequest(next.traceFor, next.result);
+                    } else {
+                        encodeAndSend(next.text, next.result);
+                    }
+                } catch (IOException e) {
+                    next.result.completeExceptionally(e);
+                } catch (Exception e) {
+                    System.err.println("Error sending message: " + e.getMessage());
+                    e.printStackTrace();
+                    next.result.completeExceptionally(e);
+                }
+            }
+        } catch (InterruptedException e) {
+            // closeClient() stops the sender
+        } finally {
+            failQueuedSends();
+        }
+    }
+
+    private void failQueuedSends() {
+        PendingSend pending;
+        while ((pending = sendQueue.poll()) != null) {
+            pending.result.completeExceptionally(new IOException("Connection closed before the message was sent"));
+        }
+    }
+
+    // Builds, encrypts and encodes one message and writes it; on the sender thread.
+    // Completes result once the message is on the wire (or, when batching, once its batch is).
+    private void encodeAndSend(String fullOriginalText, CompletableFuture<Void> result) throws Exception {
         String recipient = null;
         String contentToEncrypt = fullOriginalText.trim(); // Default: group message, full text is content
 
@@ -138,52 +551,207 @@ public class Client {
         // Don't send empty content
         if (contentToEncrypt.isEmpty()) {
             System.out.println("Message content is empty after parsing. Not sending.");
+            result.complete(null);
             return;
         }
 
-
+        // Encrypt with the key of the session the message will go out on, not one a reconnect is replacing
+        SecretKey key;
+        PublicKey publicKey;
+        long generation;
+        writeLock.lock();
         try {
-            // 1. Create Message object
-            Message messageToSend = new Message(this.username, fullOriginalText.trim(), recipient, contentToEncrypt);
+            awaitConnection();
+            key = sessionKey;
+            publicKey = serverPublicKey;
+            generation = keyGeneration;
+        } finally {
+            writeLock.unlock();
+        }
 
-            // 2. RSA Encrypt the actual message content using server's public key
-            byte[] contentBytes = RSAUtil.stringToBytes(contentToEncrypt);
-            byte[] encryptedBytes = RSAUtil.encrypt(contentBytes, serverPublicKey);
-            String encryptedBase64 = RSAUtil.bytesToBase64(encryptedBytes);
-            messageToSend.setEncryptedContentBase64(encryptedBase64);
-            // System.out.println("Encrypted Content (Base64): " + encryptedBase64); // Too verbose
+        // 1. Create Message object
+        Message messageToSend = new Message(this.username, fullOriginalText.trim(), recipient, contentToEncrypt);
+
+        ChatEvents.ClientEncode encodeEvent = new ChatEvents.ClientEncode(); // JFR, covers steps 1b to 3
+        encodeEvent.begin();
+        byte[] contentBytes = RSAUtil.stringToBytes(contentToEncrypt);
+        int contentSize = contentBytes.length;
+        // 1b. Compress longer content first (-Dchat.compress): fewer bytes to encrypt, and far fewer coded bits
+        byte[] compressedBytes = ContentCompressor.compress(contentBytes);
+        if (compressedBytes != null) {
+            contentBytes = compressedBytes;
+            messageToSend.setCompressed(true);
+        }
 
-            // 3. Convert encrypted bytes to binary string
-            String encryptedBinary = HammingUtil.bytesToBinaryString(encryptedBytes);
+        // 2. and 3. Encrypt, then error-correction encode
+        byte[] encryptedBytes = encryptAndEncode(messageToSend, contentBytes, key, publicKey);
+        encodeEvent.end();
+        if (encodeEvent.shouldCommit()) {
+            encodeEvent.sender = username;
+            encodeEvent.contentSize = contentSize;
+            encodeEvent.payloadSize = encryptedBytes.length;
+            encodeEvent.eccScheme = ecc.getName();
+            encodeEvent.compressed = messageToSend.isCompressed();
+            encodeEvent.commit();
+        }
 
-            // 4. Hamming Encode the encrypted binary string
-            String hammingEncoded = HammingUtil.encode(encryptedBinary);
-            messageToSend.setHammingEncodedBinary(hammingEncoded);
-            // System.out.println("Hamming Encoded (Binary): " + hammingEncoded); // Too verbose
+        // 4. Simulate a 1-bit error in the Hamming encoded bits
+        BitBuffer erroredHamming = HammingUtil.simulateError(messageToSend.getHammingEncoded());
+        messageToSend.setErroredHamming(erroredHamming);
 
 
-            // 5. Simulate a 1-bit error in the Hamming Encoded binary string
-            String erroredHamming = HammingUtil.simulateError(hammingEncoded);
-            messageToSend.setErroredHammingBinary(erroredHamming);
-            // System.out.println("Errored Hamming (Binary): " + erroredHamming); // Too verbose
-            // System.out.println("Error simulated at index (within Hamming string): " + findFirstDifference(hammingEncoded, erroredHamming)); // Helper for debugging
+        // 5. Send the Message object to the server
+        // The server will receive the object containing:
+        // sender, fullOriginalText, recipient, contentToEncrypt, encryptedContentBase64, hammingEncoded, erroredHamming
+        // The server will then populate correctedHamming, finalDecryptedContent, error flags
+        // and route the full object back to relevant clients.
+        ChatEvents.ClientSend sendEvent = new ChatEvents.ClientSend();
+        sendEvent.begin();
+        writeLock.lock(); // The batch window and a reconnect may write on the same channel
+        try {
+            awaitConnection();
+            if (generation != keyGeneration) {
+                // A refused resume logged in again with a new key while this message was being encrypted
+                encryptedBytes = encryptAndEncode(messageToSend, contentBytes, sessionKey, serverPublicKey);
+                messageToSend.setErroredHamming(HammingUtil.simulateError(messageToSend.getHammingEncoded()));
+            }
+            if (batchFlusher != null) {
+                queueForBatch(messageToSend, result);
+            } else {
+                recordSent(messageToSend, result);
+                try {
+                    channel.writeObject(messageToSend);
+                    channel.flush(); // Send the message immediately
+                } catch (IOException e) {
+                    if (resendAfterReconnect(e)) {
+                        return; // result completes when the message is resent
+                    }
+                    throw e;
+                }
+                System.out.println("Message object sent to server.");
+                result.complete(null);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        if (sendEvent.shouldCommit()) {
+            sendEvent.sender = username;
+            sendEvent.payloadSize = encryptedBytes.length;
+            sendEvent.batched = batchFlusher != null;
+            sendEvent.commit();
+        }
+    }
 
+    // Step 2: encrypts the (possibly compressed) content with the AES session key, falling back to RSA with the
+    // server's public key if no session key was established. Step 3: error-correction encodes the encrypted bytes
+    // directly into packed bits. Returns the encrypted bytes.
+    private byte[] encryptAndEncode(Message msg, byte[] contentBytes, SecretKey key, PublicKey publicKey) throws Exception {
+        byte[] encryptedBytes;
+        if (key != null) {
+            encryptedBytes = AESUtil.encrypt(contentBytes, key);
+            msg.setCipher(Message.CIPHER_AES_GCM);
+        } else {
+            encryptedBytes = RSAUtil.encrypt(contentBytes, publicKey);
+            msg.setCipher(Message.CIPHER_RSA);
+        }
+        msg.setEncryptedContentBase64(RSAUtil.bytesToBase64(encryptedBytes));
 
-            // 6. Send the Message object to the server
-            // The server will receive the object containing:
-            // sender, fullOriginalText, recipient, contentToEncrypt, encryptedContentBase64, hammingEncodedBinary, erroredHammingBinary
-            // The server will then populate correctedHammingBinary, finalDecryptedContent, error flags
-            // and route the full object back to relevant clients.
-            outputStream.writeObject(messageToSend);
-            outputStream.flush(); // Send the message immediately
-            System.out.println("Message object sent to server.");
+        BitBuffer hammingEncoded = ecc.encode(encryptedBytes);
+        msg.setEccScheme(ecc.getName());
+        msg.setPayloadLength(encryptedBytes.length);
+        msg.setHammingEncoded(hammingEncoded);
+        return encryptedBytes;
+    }
 
+    // Adds a message to the open batch; the first one starts the window, a full batch goes out at once.
+    // Call with writeLock held.
+    private void queueForBatch(Message msg, CompletableFuture<Void> result) throws IOException {
+        pendingBatch.add(msg);
+        pendingBatchResults.add(result);
+        if (pendingBatch.size() >= BATCH_MAX_MESSAGES) {
+            flushBatch();
+        } else if (pendingBatch.size() == 1) {
+            batchFlusher.schedule(this::flushBatchWindow, BATCH_WINDOW_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
 
-        } catch (Exception e) {
-            System.err.println("Error sending message: " + e.getMessage());
-            e.printStackTrace();
-            controller.displayStatus("Error sending message. See console.");
+    // Sends the open batch as one frame (a lone message goes out as a plain Message). Call with writeLock held.
+    private void flushBatch() throws IOException {
+        if (pendingBatch.isEmpty()) {
+            return;
+        }
+        Object frame = pendingBatch.size() == 1 ? pendingBatch.get(0) : new MessageBatch(pendingBatch);
+        int count = pendingBatch.size();
+        List<CompletableFuture<Void>> results = new ArrayList<>(pendingBatchResults);
+        for (int i = 0; i < count; i++) {
+            recordSent(pendingBatch.get(i), results.get(i));
+        }
+        pendingBatch.clear();
+        pendingBatchResults.clear();
+        if (reconnecting) {
+            return; // In the resend buffer; goes out after the resume
+        }
+        try {
+            channel.writeObject(frame);
+            channel.flush();
+        } catch (IOException e) {
+            if (resendAfterReconnect(e)) {
+                return;
+            }
+            results.forEach(result -> result.completeExceptionally(e));
+            throw e;
         }
+        System.out.println("Sent " + count + " message(s) to server in one frame.");
+        results.forEach(result -> result.complete(null));
+    }
+
+    // Batch window closed, on the batcher thread
+    private void flushBatchWindow() {
+        writeLock.lock();
+        try {
+            flushBatch();
+        } catch (IOException e) {
+            System.err.println("Error sending message batch: " + e.getMessage());
+            listener.displayStatus("Error sending message. See console.");
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // Asks the server for the pipeline stages of a lean message. Never blocks: the request is written by the
+    // sender thread, and the reply reaches the listener's applyTrace from listenForMessages
+    public void requestTrace(Message msg) {
+        if (closed || sender == null || reconnecting || !msg.needsTrace() || pendingTraces.putIfAbsent(msg.getTraceId(), msg) != null) {
+            return; // Not connected, nothing to fetch, or already requested
+        }
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        result.whenComplete((ignored, error) -> {
+            if (error != null) {
+                pendingTraces.remove(msg.getTraceId()); // Can be requested again
+                System.err.println("Error requesting message details: " + error.getMessage());
+                listener.displayStatus("Could not load message details.");
+            }
+        });
+        if (!sendQueue.offer(new PendingSend(null, msg, result))) {
+            result.completeExceptionally(new RejectedExecutionException("Too many messages waiting to be sent"));
+        } else if (closed) {
+            failQueuedSends();
+        }
+    }
+
+    // Sender thread: writes a trace request, unless a reconnect is under way (the trace stays on the server)
+    private void writeTraceRequest(Message msg, CompletableFuture<Void> result) throws IOException {
+        writeLock.lock(); // The batch window and a reconnect may write on the same channel
+        try {
+            if (reconnecting) {
+                throw new IOException("Reconnecting to server");
+            }
+            channel.writeObject(new TraceRequest(msg.getTraceId()));
+            channel.flush();
+        } finally {
+            writeLock.unlock();
+        }
+        result.complete(null);
     }
 
     // Simple helper to find the index of the first difference (for debugging error simulation)
@@ -201,14 +769,48 @@ public class Client {
 
     // Clean up client resources
     public void closeClient() {
+        closed = true;
+        if (sender != null) {
+            sender.interrupt(); // Fails whatever is still queued
+        }
+        Thread listening = listenerThread;
+        if (listening != null && listening != Thread.currentThread()) {
+            listening.interrupt(); // Stops a reconnect backoff
+        }
+        if (batchFlusher != null) {
+            batchFlusher.shutdownNow();
+        }
         try {
-            if (inputStream != null) inputStream.close();
-            if (outputStream != null) outputStream.close();
+            if (channel != null) channel.close();
             if (socket != null && !socket.isClosed()) socket.close();
             System.out.println("Client connection closed.");
         } catch (IOException e) {
             System.err.println("Error closing client: " + e.getMessage());
         }
+        // A batch whose window never closed will not be sent now
+        writeLock.lock();
+        try {
+            IOException notSent = new IOException("Connection closed before the message was sent");
+            pendingBatchResults.forEach(result -> result.completeExceptionally(notSent));
+            pendingBatchResults.clear();
+            pendingBatch.clear();
+            unacknowledged.forEach(sent -> sent.result.completeExceptionally(notSent)); // Only the ones not yet written
+            unacknowledged.clear();
+            reconnected.signalAll();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // True once the handshake is done and until the connection closes; false while reconnecting
+    public boolean isConnected() {
+        Socket current = socket;
+        return !reconnecting && current != null && current.isConnected() && !current.isClosed() && serverPublicKey != null;
+    }
+
+    // True once closeClient() ran, or reconnecting gave up
+    public boolean isClosed() {
+        return closed;
     }
 
     // Getter for username (needed by ChatController)
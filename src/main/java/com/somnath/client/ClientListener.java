@@ -0,0 +1,23 @@
+package com.somnath.client;
+
+import com.somnath.common.Message;
+import com.somnath.common.PipelineTrace;
+
+/**
+ * Receives what a Client gets from the server. Implemented by the JavaFX ChatController, the console
+ * HeadlessClient and the LoadGenerator's simulated users.
+ *
+ * All methods are called on the client's listener (or connecting) thread; UI implementations must hand
+ * the work to their own thread.
+ */
+public interface ClientListener {
+
+    // A routed chat message or a server notice
+    void displayMessage(Message msg);
+
+    // Connection state and errors, for the user
+    void displayStatus(String status);
+
+    // Pipeline details of a lean message, requested with Client.requestTrace
+    void applyTrace(Message msg, PipelineTrace trace);
+}
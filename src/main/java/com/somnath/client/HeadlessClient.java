@@ -0,0 +1,64 @@
+package com.somnath.client;
+
+import com.somnath.common.Message;
+import com.somnath.common.PipelineTrace;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+/**
+ * Console client without JavaFX: lines typed on stdin are sent (same "@user text" syntax as the UI),
+ * and routed messages are printed to stdout.
+ *
+ * mvn exec:java -Dexec.mainClass=com.somnath.client.HeadlessClient -Dexec.args="alice [host] [port]"
+ */
+public class HeadlessClient implements ClientListener {
+
+    private final String username;
+
+    public HeadlessClient(String username) {
+        this.username = username;
+    }
+
+    @Override
+    public void displayMessage(Message msg) {
+        String to = msg.isPrivateMessage() ? " -> " + msg.getRecipient() : "";
+        System.out.println("[" + msg.getSender() + to + "] " + msg.getFinalDecryptedContent());
+    }
+
+    @Override
+    public void displayStatus(String status) {
+        System.out.println("* " + status);
+    }
+
+    @Override
+    public void applyTrace(Message msg, PipelineTrace trace) {
+        // Details are never requested from the console
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: HeadlessClient <username> [host] [port]");
+            System.exit(2);
+        }
+        String host = args.length > 1 ? args[1] : "localhost";
+        int port = args.length > 2 ? Integer.parseInt(args[2]) : 12345;
+
+        Client client = new Client(host, port, args[0], new HeadlessClient(args[0]));
+        client.startClient();
+        if (!client.isConnected()) {
+            System.exit(1);
+        }
+        System.out.println("* Connected as '" + args[0] + "'. Type messages, @user for private ones, Ctrl-D to quit.");
+
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+        String line;
+        while ((line = in.readLine()) != null && !client.isClosed()) {
+            if (!line.isBlank()) {
+                client.sendMessage(line);
+            }
+        }
+        client.closeClient();
+    }
+}
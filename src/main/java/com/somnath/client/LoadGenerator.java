@@ -0,0 +1,193 @@
+package com.somnath.client;
+
+import com.somnath.common.ContentCompressor;
+import com.somnath.common.LatencyHistogram;
+import com.somnath.common.Message;
+import com.somnath.common.PipelineTrace;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Drives a running server with simulated users over loopback and reports end-to-end latency and throughput.
+ *
+ * Every user sends at a fixed rate; a configurable share of the messages goes privately to a random other
+ * user, the rest to the group. Each message carries its send time, so every copy delivered (including the
+ * sender's own echo) gives one latency sample. All users live in this JVM, so System.nanoTime() is comparable.
+ *
+ * mvn exec:java -Dexec.mainClass=com.somnath.client.LoadGenerator -Dchat.load.users=50 -Dchat.load.rate=5
+ *
+ * Properties: chat.load.host, chat.load.port, chat.load.users, chat.load.rate (messages/second per user),
+ * chat.load.size (content bytes, random text), chat.load.privateRatio (0..1), chat.load.seconds, chat.load.warmupSeconds.
+ */
+public class LoadGenerator {
+
+    private static final String TOKEN_PREFIX = "#load:";
+    // Padding is drawn at random from this alphabet so compression cannot shrink it to nothing
+    private static final String PADDING_ALPHABET = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789 .";
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder sendFailures = new LongAdder();
+    private final LongAdder statusEvents = new LongAdder();
+    private volatile long measureFromNanos = Long.MAX_VALUE;
+
+    /**
+     * One simulated user; only counts what arrives, never renders it.
+     */
+    private class LoadListener implements ClientListener {
+
+        @Override
+        public void displayMessage(Message msg) {
+            if ("SERVER".equals(msg.getSender())) {
+                return; // Error notices, not chat traffic
+            }
+            long sentAt = parseSendTime(msg.getFinalDecryptedContent());
+            if (sentAt >= measureFromNanos) {
+                latency.recordSince(sentAt);
+                delivered.increment();
+            }
+        }
+
+        @Override
+        public void displayStatus(String status) {
+            statusEvents.increment();
+        }
+
+        @Override
+        public void applyTrace(Message msg, PipelineTrace trace) {
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        new LoadGenerator().run();
+    }
+
+    private void run() throws InterruptedException {
+        String host = System.getProperty("chat.load.host", "localhost");
+        int port = Integer.getInteger("chat.load.port", 12345);
+        int users = Math.max(1, Integer.getInteger("chat.load.users", 10));
+        double rate = Double.parseDouble(System.getProperty("chat.load.rate", "1"));
+        int size = Math.max(0, Integer.getInteger("chat.load.size", 64));
+        double privateRatio = Double.parseDouble(System.getProperty("chat.load.privateRatio", "0.2"));
+        int seconds = Math.max(1, Integer.getInteger("chat.load.seconds", 30));
+        int warmupSeconds = Math.max(0, Integer.getInteger("chat.load.warmupSeconds", 5));
+
+        PrintStream console = System.out;
+        console.printf(Locale.ROOT, "Load: %d users, %.1f msg/s each, %d bytes, %.0f%% private, %ds (+%ds warm-up) against %s:%d%n",
+                users, rate, size, privateRatio * 100, seconds, warmupSeconds, host, port);
+        console.println(ContentCompressor.ENABLED
+                ? "Compression on: random padding gains little at small sizes and deflates to about 3/4 at large ones (-Dchat.compress=false to send it as is)"
+                : "Compression off");
+        // Client logs every message it sends and receives; that would dominate the run
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        // Usernames must match the @user syntax (word characters only) to receive private messages
+        String runId = Long.toString(System.currentTimeMillis() % 100000, 36);
+        List<Client> clients = new ArrayList<>(users);
+        for (int i = 0; i < users; i++) {
+            Client client = new Client(host, port, "load_" + runId + "_" + i, new LoadListener());
+            client.startClient();
+            if (!client.isConnected()) {
+                System.setOut(console);
+                System.err.println("User " + i + " could not connect; stopping.");
+                clients.forEach(Client::closeClient);
+                return;
+            }
+            clients.add(client);
+        }
+
+        long periodNanos = (long) (1e9 / Math.max(0.001, rate));
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(
+                Math.min(users, Runtime.getRuntime().availableProcessors()), r -> {
+                    Thread t = new Thread(r, "load-sender");
+                    t.setDaemon(true);
+                    return t;
+                });
+        for (int i = 0; i < users; i++) {
+            Client client = clients.get(i);
+            int self = i;
+            long initialDelay = ThreadLocalRandom.current().nextLong(periodNanos); // Spread users over the period
+            scheduler.scheduleAtFixedRate(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long now = System.nanoTime();
+                String content = TOKEN_PREFIX + now + " " + randomPadding(random, size);
+                if (users > 1 && random.nextDouble() < privateRatio) {
+                    int other = random.nextInt(users - 1);
+                    content = "@" + clients.get(other >= self ? other + 1 : other).getUsername() + " " + content;
+                }
+                boolean measured = now >= measureFromNanos;
+                // Async, so a slow server shows up as latency instead of silently lowering the send rate
+                client.sendMessageAsync(content).whenComplete((ignored, error) -> {
+                    if (error != null) {
+                        sendFailures.increment();
+                    } else if (measured) {
+                        sent.increment();
+                    }
+                });
+            }, initialDelay, periodNanos, TimeUnit.NANOSECONDS);
+        }
+
+        TimeUnit.SECONDS.sleep(warmupSeconds);
+        long start = System.nanoTime();
+        measureFromNanos = start;
+        TimeUnit.SECONDS.sleep(seconds);
+        scheduler.shutdownNow();
+        long elapsed = System.nanoTime() - start;
+        TimeUnit.SECONDS.sleep(2); // Let in-flight messages arrive before reporting
+
+        report(console, elapsed); // Before closing, which would count as disconnects
+        clients.forEach(Client::closeClient);
+    }
+
+    private void report(PrintStream out, long elapsedNanos) {
+        double elapsedSeconds = elapsedNanos / 1e9;
+        out.printf(Locale.ROOT, "Sent:      %d messages (%.1f msg/s)%n", sent.sum(), sent.sum() / elapsedSeconds);
+        out.printf(Locale.ROOT, "Delivered: %d copies (%.1f msg/s)%n", delivered.sum(), delivered.sum() / elapsedSeconds);
+        out.printf(Locale.ROOT, "Latency ms: p50 %.2f  p90 %.2f  p99 %.2f  p999 %.2f  max %.2f  mean %.2f%n",
+                latency.getPercentileNanos(0.5) / 1e6, latency.getPercentileNanos(0.9) / 1e6,
+                latency.getPercentileNanos(0.99) / 1e6, latency.getPercentileNanos(0.999) / 1e6,
+                latency.getMaxNanos() / 1e6, latency.getMeanNanos() / 1e6);
+        if (sendFailures.sum() > 0) {
+            out.println("Send failures (queue full or disconnected): " + sendFailures.sum());
+        }
+        if (statusEvents.sum() > 0) {
+            out.println("Status events (errors/disconnects): " + statusEvents.sum());
+        }
+    }
+
+    private static String randomPadding(ThreadLocalRandom random, int size) {
+        char[] padding = new char[size];
+        for (int i = 0; i < size; i++) {
+            padding[i] = PADDING_ALPHABET.charAt(random.nextInt(PADDING_ALPHABET.length()));
+        }
+        return new String(padding);
+    }
+
+    // Reads the send time back out of "[@user ]#load:<nanos> xxx", or Long.MIN_VALUE for anything else
+    private static long parseSendTime(String content) {
+        if (content == null) {
+            return Long.MIN_VALUE;
+        }
+        int at = content.indexOf(TOKEN_PREFIX);
+        if (at < 0) {
+            return Long.MIN_VALUE;
+        }
+        int from = at + TOKEN_PREFIX.length();
+        int to = content.indexOf(' ', from);
+        try {
+            return Long.parseLong(content, from, to < 0 ? content.length() : to, 10);
+        } catch (NumberFormatException e) {
+            return Long.MIN_VALUE;
+        }
+    }
+}
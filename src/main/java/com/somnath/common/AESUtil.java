@@ -0,0 +1,77 @@
+package com.somnath.common;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+public class AESUtil {
+
+    private static final String ALGORITHM = "AES";
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+
+    private static final int KEY_SIZE = 128; // bits
+    private static final int IV_LENGTH = 12; // bytes, the recommended GCM nonce size
+    private static final int TAG_LENGTH = 128; // bits
+
+    private static final SecureRandom random = new SecureRandom();
+
+    /**
+     * Generates a fresh AES session key.
+     * Client will use this once per connection.
+     * @return The generated SecretKey.
+     * @throws NoSuchAlgorithmException If AES is not available.
+     */
+    public static SecretKey generateSessionKey() throws NoSuchAlgorithmException {
+        KeyGenerator keyGen = KeyGenerator.getInstance(ALGORITHM);
+        keyGen.init(KEY_SIZE);
+        return keyGen.generateKey();
+    }
+
+    /**
+     * Wraps (RSA-encrypts) a session key with the server's public key for the handshake.
+     */
+    public static byte[] wrapKey(SecretKey sessionKey, PublicKey publicKey) throws Exception {
+        return RSAUtil.encrypt(sessionKey.getEncoded(), publicKey);
+    }
+
+    /**
+     * Unwraps a session key sent by a client, using the server's private key.
+     */
+    public static SecretKey unwrapKey(byte[] wrappedKey, PrivateKey privateKey) throws Exception {
+        return new SecretKeySpec(RSAUtil.decrypt(wrappedKey, privateKey), ALGORITHM);
+    }
+
+    /**
+     * Encrypts data with AES-GCM under a fresh random IV.
+     * @return IV followed by ciphertext and authentication tag.
+     */
+    public static byte[] encrypt(byte[] data, SecretKey key) throws Exception {
+        byte[] iv = new byte[IV_LENGTH];
+        random.nextBytes(iv);
+        Cipher cipher = CryptoEngine.cipher(TRANSFORMATION); // Cached per thread; GCM needs init per IV anyway
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH, iv));
+        byte[] output = Arrays.copyOf(iv, IV_LENGTH + cipher.getOutputSize(data.length));
+        cipher.doFinal(data, 0, data.length, output, IV_LENGTH);
+        return output;
+    }
+
+    /**
+     * Decrypts the output of encrypt().
+     * @throws javax.crypto.AEADBadTagException (a BadPaddingException) if the data was corrupted or tampered with.
+     */
+    public static byte[] decrypt(byte[] data, SecretKey key) throws Exception {
+        if (data.length < IV_LENGTH) {
+            throw new IllegalArgumentException("AES-GCM data too short: " + data.length + " bytes");
+        }
+        Cipher cipher = CryptoEngine.cipher(TRANSFORMATION);
+        cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH, data, 0, IV_LENGTH));
+        return cipher.doFinal(data, IV_LENGTH, data.length - IV_LENGTH);
+    }
+}
@@ -0,0 +1,341 @@
+package com.somnath.common;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Versioned binary framing for the chat protocol.
+ *
+ * Frame: int length | byte version | byte type | payload   (length covers version, type and payload)
+ *
+ * Types and payloads:
+ *   SERVER_KEY   X.509-encoded RSA public key
+ *   HELLO        username
+ *   SESSION_KEY  RSA-wrapped AES session key
+ *   MESSAGE      Message fields (see writeMessage)
+ *   STATUS       text of a plain server notice (a SERVER Message that never went through the pipeline)
+ *   TRACE_REQUEST long trace id
+ *   TRACE        trace id, ciphertext and the three ECC bit buffers of one message
+ *   BATCH        int count + that many MESSAGE payloads (client-side batching)
+ *   SEQUENCED    long sequence number + a complete inner frame, length prefix included (routed delivery)
+ *   SESSION_TICKET resume token (null = refused), long messages received, boolean resumed
+ *   RESUME       username, resume token, long last sequence number received
+ *
+ * Strings are int length (-1 for null) + UTF-8 bytes; byte arrays likewise; BitBuffers use BitBuffer.writeTo.
+ */
+public class BinaryFrameCodec {
+
+    public static final byte VERSION = 3; // 2: MESSAGE carries a trace id; 3: sequenced delivery and session resume
+
+    public static final byte TYPE_SERVER_KEY = 1;
+    public static final byte TYPE_HELLO = 2;
+    public static final byte TYPE_SESSION_KEY = 3;
+    public static final byte TYPE_MESSAGE = 4;
+    public static final byte TYPE_STATUS = 5;
+    public static final byte TYPE_TRACE_REQUEST = 6;
+    public static final byte TYPE_TRACE = 7;
+    public static final byte TYPE_BATCH = 8;
+    public static final byte TYPE_SEQUENCED = 9;
+    public static final byte TYPE_SESSION_TICKET = 10;
+    public static final byte TYPE_RESUME = 11;
+
+    public static final int HEADER_LENGTH = 4; // The int length prefix
+    // What a SEQUENCED frame adds in front of its inner frame: length prefix, version, type and sequence number
+    public static final int SEQUENCE_HEADER_LENGTH = HEADER_LENGTH + 2 + Long.BYTES;
+    public static final int MAX_FRAME_LENGTH = Integer.getInteger("chat.wire.maxFrameBytes", 16 * 1024 * 1024);
+    // Servers accept only this much per frame until a client has logged in or resumed (keys and usernames are small)
+    public static final int MAX_HANDSHAKE_FRAME_LENGTH =
+            Math.min(MAX_FRAME_LENGTH, Integer.getInteger("chat.wire.maxHandshakeFrameBytes", 16 * 1024));
+
+    private static final String SERVER_SENDER = "SERVER";
+
+    // Message flag bits
+    private static final int FLAG_ERROR_DETECTED = 1;
+    private static final int FLAG_ERROR_CORRECTED = 1 << 1;
+    private static final int FLAG_ERROR_UNCORRECTABLE = 1 << 2;
+    private static final int FLAG_COMPRESSED = 1 << 3;
+
+    /**
+     * Encodes a protocol object into a complete frame, length prefix included.
+     * An EncodedFrame's shared bytes are returned as they are, not copied.
+     * @throws IllegalArgumentException If the object is not part of the protocol.
+     */
+    public static byte[] encode(Object frame) throws IOException {
+        if (frame instanceof EncodedFrame) {
+            return ((EncodedFrame) frame).bytes();
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0); // Length placeholder
+        out.writeByte(VERSION);
+
+        if (frame instanceof Message) {
+            Message msg = (Message) frame;
+            if (isStatus(msg)) {
+                out.writeByte(TYPE_STATUS);
+                writeString(out, msg.getFinalDecryptedContent());
+            } else {
+                out.writeByte(TYPE_MESSAGE);
+                writeMessage(out, msg);
+            }
+        } else if (frame instanceof MessageBatch) {
+            out.writeByte(TYPE_BATCH);
+            List<Message> messages = ((MessageBatch) frame).getMessages();
+            out.writeInt(messages.size());
+            for (Message msg : messages) {
+                writeMessage(out, msg);
+            }
+        } else if (frame instanceof SequencedFrame) {
+            // Copies the inner frame. Channels avoid that by writing sequenceHeader() and the shared bytes separately
+            SequencedFrame sequenced = (SequencedFrame) frame;
+            out.writeByte(TYPE_SEQUENCED);
+            out.writeLong(sequenced.getSequence());
+            out.write(encode(sequenced.getFrame()));
+        } else if (frame instanceof SessionTicket) {
+            SessionTicket ticket = (SessionTicket) frame;
+            out.writeByte(TYPE_SESSION_TICKET);
+            writeBytes(out, ticket.getToken());
+            out.writeLong(ticket.getReceivedCount());
+            out.writeBoolean(ticket.isResumed());
+        } else if (frame instanceof ResumeRequest) {
+            ResumeRequest resume = (ResumeRequest) frame;
+            out.writeByte(TYPE_RESUME);
+            writeString(out, resume.getUsername());
+            writeBytes(out, resume.getToken());
+            out.writeLong(resume.getLastSequence());
+        } else if (frame instanceof TraceRequest) {
+            out.writeByte(TYPE_TRACE_REQUEST);
+            out.writeLong(((TraceRequest) frame).getTraceId());
+        } else if (frame instanceof PipelineTrace) {
+            PipelineTrace trace = (PipelineTrace) frame;
+            out.writeByte(TYPE_TRACE);
+            out.writeLong(trace.getTraceId());
+            writeString(out, trace.getEncryptedContentBase64());
+            writeBits(out, trace.getHammingEncoded());
+            writeBits(out, trace.getErroredHamming());
+            writeBits(out, trace.getCorrectedHamming());
+        } else if (frame instanceof PublicKey) {
+            out.writeByte(TYPE_SERVER_KEY);
+            writeBytes(out, ((PublicKey) frame).getEncoded());
+        } else if (frame instanceof String) {
+            out.writeByte(TYPE_HELLO);
+            writeString(out, (String) frame);
+        } else if (frame instanceof byte[]) {
+            out.writeByte(TYPE_SESSION_KEY);
+            writeBytes(out, (byte[]) frame);
+        } else {
+            throw new IllegalArgumentException("Not a protocol frame: " + (frame == null ? "null" : frame.getClass().getName()));
+        }
+
+        out.flush();
+        byte[] encoded = bytes.toByteArray();
+        int length = encoded.length - HEADER_LENGTH;
+        encoded[0] = (byte) (length >>> 24);
+        encoded[1] = (byte) (length >>> 16);
+        encoded[2] = (byte) (length >>> 8);
+        encoded[3] = (byte) length;
+        return encoded;
+    }
+
+    /**
+     * Decodes a frame body (everything after the length prefix).
+     */
+    public static Object decode(byte[] body, int offset, int length) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(body, offset, length));
+        int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported frame version " + version);
+        }
+        int type = in.readUnsignedByte();
+        switch (type) {
+            case TYPE_MESSAGE:
+                return readMessage(in);
+            case TYPE_STATUS:
+                return statusMessage(readString(in));
+            case TYPE_BATCH:
+                return readBatch(in);
+            case TYPE_SEQUENCED:
+                return readSequenced(in, body, offset + length - in.available());
+            case TYPE_SESSION_TICKET:
+                return new SessionTicket(readBytes(in), in.readLong(), in.readBoolean());
+            case TYPE_RESUME:
+                return new ResumeRequest(readString(in), readBytes(in), in.readLong());
+            case TYPE_TRACE_REQUEST:
+                return new TraceRequest(in.readLong());
+            case TYPE_TRACE:
+                return new PipelineTrace(in.readLong(), readString(in), readBits(in), readBits(in), readBits(in));
+            case TYPE_SERVER_KEY:
+                return readPublicKey(readBytes(in));
+            case TYPE_HELLO:
+                return readString(in);
+            case TYPE_SESSION_KEY:
+                return readBytes(in);
+            default:
+                throw new IOException("Unknown frame type " + type);
+        }
+    }
+
+    /**
+     * The start of a SEQUENCED frame. Followed by the complete inner frame (innerLength bytes, length prefix
+     * included), it makes the same frame encode() would, without copying the inner frame.
+     */
+    public static byte[] sequenceHeader(long sequence, int innerLength) {
+        return ByteBuffer.allocate(SEQUENCE_HEADER_LENGTH)
+                .putInt(SEQUENCE_HEADER_LENGTH - HEADER_LENGTH + innerLength)
+                .put(VERSION)
+                .put(TYPE_SEQUENCED)
+                .putLong(sequence)
+                .array();
+    }
+
+    public static void checkFrameLength(int length) throws IOException {
+        checkFrameLength(length, MAX_FRAME_LENGTH);
+    }
+
+    public static void checkFrameLength(int length, int maxLength) throws IOException {
+        if (length < 2 || length > maxLength) {
+            throw new IOException("Invalid frame length " + length);
+        }
+    }
+
+    // A server notice built by Server.createErrorMessage: no crypto/ECC data, only the text
+    private static boolean isStatus(Message msg) {
+        return SERVER_SENDER.equals(msg.getSender()) && msg.getErroredHamming() == null && msg.getEncryptedContentBase64() == null
+                && msg.getRecipient() == null && msg.getFinalDecryptedContent() != null && msg.getTraceId() == 0;
+    }
+
+    private static Message statusMessage(String text) {
+        Message msg = new Message(SERVER_SENDER, text, null, text);
+        msg.setFinalDecryptedContent(text);
+        return msg;
+    }
+
+    private static void writeMessage(DataOutputStream out, Message msg) throws IOException {
+        writeString(out, msg.getSender());
+        writeString(out, msg.getRecipient());
+        writeString(out, msg.getFullOriginalText());
+        writeString(out, msg.getContentToEncrypt());
+        writeString(out, msg.getCipher());
+        writeString(out, msg.getEncryptedContentBase64());
+        writeString(out, msg.getEccScheme());
+        out.writeInt(msg.getPayloadLength());
+        writeBits(out, msg.getHammingEncoded());
+        writeBits(out, msg.getErroredHamming());
+        writeBits(out, msg.getCorrectedHamming());
+        writeString(out, msg.getFinalDecryptedContent());
+        out.writeLong(msg.getTraceId());
+        int flags = (msg.isErrorDetected() ? FLAG_ERROR_DETECTED : 0)
+                | (msg.isErrorCorrected() ? FLAG_ERROR_CORRECTED : 0)
+                | (msg.isErrorUncorrectable() ? FLAG_ERROR_UNCORRECTABLE : 0)
+                | (msg.isCompressed() ? FLAG_COMPRESSED : 0);
+        out.writeByte(flags);
+    }
+
+    private static Message readMessage(DataInputStream in) throws IOException {
+        Message msg = new Message(readString(in), null, null, null);
+        msg.setRecipient(readString(in));
+        msg.setFullOriginalText(readString(in));
+        msg.setContentToEncrypt(readString(in));
+        msg.setCipher(readString(in));
+        msg.setEncryptedContentBase64(readString(in));
+        msg.setEccScheme(readString(in));
+        msg.setPayloadLength(in.readInt());
+        msg.setHammingEncoded(readBits(in));
+        msg.setErroredHamming(readBits(in));
+        msg.setCorrectedHamming(readBits(in));
+        msg.setFinalDecryptedContent(readString(in));
+        msg.setTraceId(in.readLong());
+        int flags = in.readUnsignedByte();
+        msg.setErrorDetected((flags & FLAG_ERROR_DETECTED) != 0);
+        msg.setErrorCorrected((flags & FLAG_ERROR_CORRECTED) != 0);
+        msg.setErrorUncorrectable((flags & FLAG_ERROR_UNCORRECTABLE) != 0);
+        msg.setCompressed((flags & FLAG_COMPRESSED) != 0);
+        return msg;
+    }
+
+    private static MessageBatch readBatch(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > in.available()) { // Every message takes more than one byte
+            throw new IOException("Invalid batch size " + count);
+        }
+        List<Message> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            messages.add(readMessage(in));
+        }
+        return new MessageBatch(messages);
+    }
+
+    // innerStart is where the sequence number begins in body
+    private static SequencedFrame readSequenced(DataInputStream in, byte[] body, int innerStart) throws IOException {
+        long sequence = in.readLong();
+        int innerLength = in.readInt();
+        checkFrameLength(innerLength);
+        if (innerLength > in.available()) {
+            throw new IOException("Invalid inner frame length " + innerLength);
+        }
+        Object inner = decode(body, innerStart + 8 + HEADER_LENGTH, innerLength);
+        if (inner instanceof SequencedFrame) {
+            throw new IOException("Nested sequenced frame");
+        }
+        return new SequencedFrame(sequence, inner);
+    }
+
+    private static PublicKey readPublicKey(byte[] encoded) throws IOException {
+        try {
+            return KeyFactory.getInstance("RSA").generatePublic(new X509EncodedKeySpec(encoded));
+        } catch (Exception e) {
+            throw new IOException("Invalid server public key: " + e.getMessage(), e);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        writeBytes(out, s == null ? null : s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = readBytes(in);
+        return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        if (bytes == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length == -1) {
+            return null;
+        }
+        if (length < 0 || length > in.available()) {
+            throw new IOException("Invalid field length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static void writeBits(DataOutputStream out, BitBuffer bits) throws IOException {
+        out.writeBoolean(bits != null);
+        if (bits != null) {
+            bits.writeTo(out);
+        }
+    }
+
+    private static BitBuffer readBits(DataInputStream in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        return BitBuffer.readFrom(in, in.available() * 8);
+    }
+}
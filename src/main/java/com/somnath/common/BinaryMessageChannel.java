@@ -0,0 +1,78 @@
+package com.somnath.common;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * MessageChannel using the length-prefixed binary frames of BinaryFrameCodec.
+ * Nothing is retained between frames, unlike an ObjectOutputStream's handle table.
+ */
+public class BinaryMessageChannel implements MessageChannel {
+
+    // The body buffer grows by doubling from this size as bytes arrive, not to whatever the length prefix claims
+    private static final int READ_CHUNK_SIZE = 64 * 1024;
+
+    private final DataInputStream inputStream;
+    private final OutputStream outputStream;
+    private long lastReadNanos = -1; // Only the reading thread touches it
+    private int maxFrameLength = BinaryFrameCodec.MAX_FRAME_LENGTH; // Likewise
+
+    public BinaryMessageChannel(InputStream in, OutputStream out) {
+        this.inputStream = new DataInputStream(new BufferedInputStream(in));
+        this.outputStream = new BufferedOutputStream(out);
+    }
+
+    @Override
+    public void writeObject(Object frame) throws IOException {
+        if (frame instanceof SequencedFrame) {
+            // Per-recipient header, then the inner frame's bytes, which an EncodedFrame shares with every recipient
+            SequencedFrame sequenced = (SequencedFrame) frame;
+            byte[] inner = BinaryFrameCodec.encode(sequenced.getFrame());
+            outputStream.write(BinaryFrameCodec.sequenceHeader(sequenced.getSequence(), inner.length));
+            outputStream.write(inner);
+            return;
+        }
+        outputStream.write(BinaryFrameCodec.encode(frame)); // An EncodedFrame is written without re-encoding
+    }
+
+    @Override
+    public Object readObject() throws IOException {
+        int length = inputStream.readInt(); // EOFException when the peer is gone
+        long start = System.nanoTime();
+        BinaryFrameCodec.checkFrameLength(length, maxFrameLength);
+        byte[] body = new byte[Math.min(length, READ_CHUNK_SIZE)];
+        inputStream.readFully(body);
+        while (body.length < length) {
+            int read = body.length;
+            body = Arrays.copyOf(body, (int) Math.min(length, 2L * read));
+            inputStream.readFully(body, read, body.length - read);
+        }
+        Object frame = BinaryFrameCodec.decode(body, 0, length);
+        lastReadNanos = System.nanoTime() - start;
+        return frame;
+    }
+
+    @Override
+    public void setMaxFrameLength(int maxLength) {
+        maxFrameLength = maxLength;
+    }
+
+    @Override
+    public long lastReadNanos() {
+        return lastReadNanos;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        outputStream.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            inputStream.close();
+        } finally {
+            outputStream.close();
+        }
+    }
+}
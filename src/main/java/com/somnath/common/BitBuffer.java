@@ -0,0 +1,188 @@
+package com.somnath.common;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Fixed-length sequence of bits packed into a long[] (64 bits per word).
+ * Bit i lives in words[i / 64] at position (i % 64), so a 7-bit Hamming block
+ * can be read or written with a couple of shifts instead of seven chars.
+ * This is what travels inside a Message; toBinaryString() is only a debug view.
+ */
+public class BitBuffer implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final long[] words;
+    private final int length; // Number of valid bits
+
+    public BitBuffer(int length) {
+        if (length < 0) {
+            throw new IllegalArgumentException("Bit length must not be negative: " + length);
+        }
+        this.length = length;
+        this.words = new long[(length + 63) >>> 6];
+    }
+
+    private BitBuffer(long[] words, int length) {
+        this.words = words;
+        this.length = length;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public boolean get(int index) {
+        return ((words[index >>> 6] >>> index) & 1L) != 0;
+    }
+
+    public void set(int index, boolean value) {
+        if (value) {
+            words[index >>> 6] |= 1L << index;
+        } else {
+            words[index >>> 6] &= ~(1L << index);
+        }
+    }
+
+    public void flip(int index) {
+        words[index >>> 6] ^= 1L << index;
+    }
+
+    /**
+     * Reads count bits (1..64) starting at index. Bit k of the result is bit (index + k).
+     */
+    public long getBits(int index, int count) {
+        int word = index >>> 6;
+        int offset = index & 63;
+        long value = words[word] >>> offset;
+        if (offset + count > 64) {
+            value |= words[word + 1] << (64 - offset);
+        }
+        return count == 64 ? value : value & ((1L << count) - 1);
+    }
+
+    /**
+     * Writes the low count bits (1..64) of value starting at index.
+     */
+    public void setBits(int index, int count, long value) {
+        long mask = count == 64 ? -1L : (1L << count) - 1;
+        value &= mask;
+        int word = index >>> 6;
+        int offset = index & 63;
+        words[word] = (words[word] & ~(mask << offset)) | (value << offset);
+        if (offset + count > 64) {
+            int spill = 64 - offset;
+            words[word + 1] = (words[word + 1] & ~(mask >>> spill)) | (value >>> spill);
+        }
+    }
+
+    public BitBuffer copy() {
+        return new BitBuffer(words.clone(), length);
+    }
+
+    /**
+     * Packs the bits into bytes, most significant bit first (bit 0 is the top bit of byte 0).
+     * This matches the order used by the String debug view.
+     */
+    public byte[] toByteArray() {
+        byte[] bytes = new byte[(length + 7) >>> 3];
+        for (int i = 0; i < length; i++) {
+            if (get(i)) {
+                bytes[i >>> 3] |= (byte) (0x80 >>> (i & 7));
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Inverse of toByteArray(): reads bitLength bits from bytes, most significant bit first.
+     */
+    public static BitBuffer fromByteArray(byte[] bytes, int offset, int bitLength) {
+        BitBuffer buffer = new BitBuffer(bitLength);
+        for (int i = 0; i < bitLength; i++) {
+            if ((bytes[offset + (i >>> 3)] & (0x80 >>> (i & 7))) != 0) {
+                buffer.words[i >>> 6] |= 1L << i;
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * Writes the bit length followed by the packed bits (little-endian bytes of the words),
+     * for the binary wire protocol. Much cheaper than toByteArray(), which works bit by bit.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(length);
+        byte[] bytes = new byte[(length + 7) >>> 3];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (words[i >>> 3] >>> ((i & 7) << 3));
+        }
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a buffer written by writeTo().
+     * @param maxLength Upper bound on the bit length, to reject corrupt or hostile frames.
+     */
+    public static BitBuffer readFrom(DataInput in, int maxLength) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > maxLength) {
+            throw new IOException("Invalid bit length " + length);
+        }
+        BitBuffer buffer = new BitBuffer(length);
+        byte[] bytes = new byte[(length + 7) >>> 3];
+        in.readFully(bytes);
+        for (int i = 0; i < bytes.length; i++) {
+            buffer.words[i >>> 3] |= (bytes[i] & 0xFFL) << ((i & 7) << 3);
+        }
+        if ((length & 63) != 0) {
+            buffer.words[buffer.words.length - 1] &= (1L << length) - 1; // Keep bits past the end clear for equals()
+        }
+        return buffer;
+    }
+
+    /**
+     * Debug view in the old '0'/'1' String format (bit 0 first).
+     */
+    public String toBinaryString() {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = get(i) ? '1' : '0';
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Parses the '0'/'1' debug format back into a buffer.
+     */
+    public static BitBuffer fromBinaryString(String binary) {
+        BitBuffer buffer = new BitBuffer(binary.length());
+        for (int i = 0; i < binary.length(); i++) {
+            if (binary.charAt(i) == '1') {
+                buffer.words[i >>> 6] |= 1L << i;
+            }
+        }
+        return buffer;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof BitBuffer)) return false;
+        BitBuffer other = (BitBuffer) o;
+        return length == other.length && Arrays.equals(words, other.words);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * length + Arrays.hashCode(words);
+    }
+
+    @Override
+    public String toString() {
+        return "BitBuffer{length=" + length + '}';
+    }
+}
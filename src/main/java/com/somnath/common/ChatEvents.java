@@ -0,0 +1,137 @@
+package com.somnath.common;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events for the message pipeline, so CPU samples, allocations and GC pauses in a
+ * recording can be tied to a specific sender and message size.
+ *
+ * Stack traces are off and nothing is computed unless shouldCommit() says the event is enabled, so the
+ * events can stay on in a continuous recording. Use them as:
+ *
+ *   ChatEvents.Correct event = new ChatEvents.Correct();
+ *   event.begin();
+ *   ... work ...
+ *   if (event.shouldCommit()) { event.sender = ...; event.commit(); }
+ */
+public final class ChatEvents {
+
+    private ChatEvents() {
+    }
+
+    @Name("com.somnath.chat.Correct")
+    @Label("Error Correction")
+    @Description("Server-side ECC correction of one received message")
+    @Category({"Chat", "Server"})
+    @StackTrace(false)
+    public static final class Correct extends Event {
+        @Label("Sender")
+        public String sender;
+
+        @Label("Payload Size")
+        @DataAmount
+        public int payloadSize;
+
+        @Label("Code")
+        public String eccScheme;
+
+        @Label("Error Detected")
+        public boolean errorDetected;
+
+        @Label("Uncorrectable")
+        public boolean uncorrectable;
+    }
+
+    @Name("com.somnath.chat.Decrypt")
+    @Label("Decrypt")
+    @Description("Server-side decoding, decryption and inflating of one received message")
+    @Category({"Chat", "Server"})
+    @StackTrace(false)
+    public static final class Decrypt extends Event {
+        @Label("Sender")
+        public String sender;
+
+        @Label("Payload Size")
+        @DataAmount
+        public int payloadSize;
+
+        @Label("Cipher")
+        public String cipher;
+
+        @Label("Compressed")
+        public boolean compressed;
+
+        @Label("Succeeded")
+        public boolean succeeded;
+    }
+
+    @Name("com.somnath.chat.Route")
+    @Label("Route")
+    @Description("Fan-out of one processed message to its recipients' outbound queues")
+    @Category({"Chat", "Server"})
+    @StackTrace(false)
+    public static final class Route extends Event {
+        @Label("Sender")
+        public String sender;
+
+        @Label("Payload Size")
+        @DataAmount
+        public int payloadSize;
+
+        @Label("Error Detected")
+        public boolean errorDetected;
+
+        @Label("Private")
+        public boolean privateMessage;
+
+        @Label("Recipient Count")
+        public int recipientCount;
+    }
+
+    @Name("com.somnath.chat.ClientEncode")
+    @Label("Client Encode")
+    @Description("Client-side compression, encryption and ECC encoding of one outgoing message")
+    @Category({"Chat", "Client"})
+    @StackTrace(false)
+    public static final class ClientEncode extends Event {
+        @Label("Sender")
+        public String sender;
+
+        @Label("Content Size")
+        @DataAmount
+        public int contentSize;
+
+        @Label("Payload Size")
+        @DataAmount
+        public int payloadSize;
+
+        @Label("Code")
+        public String eccScheme;
+
+        @Label("Compressed")
+        public boolean compressed;
+    }
+
+    @Name("com.somnath.chat.ClientSend")
+    @Label("Client Send")
+    @Description("Client-side write and flush of one outgoing frame (or hand-off to the open batch)")
+    @Category({"Chat", "Client"})
+    @StackTrace(false)
+    public static final class ClientSend extends Event {
+        @Label("Sender")
+        public String sender;
+
+        @Label("Payload Size")
+        @DataAmount
+        public int payloadSize;
+
+        @Label("Batched")
+        public boolean batched;
+    }
+}
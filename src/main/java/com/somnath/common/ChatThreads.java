@@ -0,0 +1,36 @@
+package com.somnath.common;
+
+/**
+ * Starts the long-lived blocking threads of the app (server client handlers, the client's
+ * connection and listener threads) as virtual or platform threads, chosen by -Dchat.threads.
+ *
+ * Virtual threads keep the simple blocking readObject() style while letting the server hold
+ * far more connections than there are OS threads. Code running on them should not block while
+ * holding a monitor (synchronized), which pins the carrier thread; use a ReentrantLock instead.
+ */
+public final class ChatThreads {
+
+    public static final String VIRTUAL = "virtual";
+    public static final String PLATFORM = "platform";
+
+    private ChatThreads() {
+    }
+
+    public static String configuredMode() {
+        return PLATFORM.equalsIgnoreCase(System.getProperty("chat.threads", VIRTUAL)) ? PLATFORM : VIRTUAL;
+    }
+
+    public static boolean isVirtual() {
+        return VIRTUAL.equals(configuredMode());
+    }
+
+    /**
+     * Starts task on a new thread of the configured kind.
+     */
+    public static Thread start(String name, Runnable task) {
+        if (isVirtual()) {
+            return Thread.ofVirtual().name(name).start(task);
+        }
+        return Thread.ofPlatform().name(name).start(task);
+    }
+}
@@ -0,0 +1,93 @@
+package com.somnath.common;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Optional compression of message content ahead of encryption (-Dchat.compress, default on).
+ * Every byte that reaches the ECC encoder becomes 9 to 14 coded bits, so shrinking the plaintext
+ * cuts both the coded size and the codec time.
+ *
+ * Content shorter than -Dchat.compress.minBytes (default 48) is sent as is, and so is anything that
+ * does not get smaller. Raw deflate with a preset dictionary of common chat text lets short messages
+ * compress too; both sides must use the same dictionary, so changing it is a protocol change.
+ *
+ * Deflater and Inflater hold native memory and are costly to create, so each thread keeps one of each.
+ */
+public final class ContentCompressor {
+
+    public static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("chat.compress", "true"));
+    public static final int MIN_BYTES = Integer.getInteger("chat.compress.minBytes", 48);
+    // Guards the server against a small payload that inflates to something huge
+    public static final int MAX_INFLATED_BYTES = Integer.getInteger("chat.compress.maxInflatedBytes", 1024 * 1024);
+
+    // Most likely phrases last: deflate finds matches closer to the end of the dictionary with shorter distances
+    private static final byte[] DICTIONARY = (
+            "http://https://www.com .org .net .png .jpg " +
+            "thanks thank you please sorry welcome morning evening tonight tomorrow yesterday today " +
+            "meeting message because should would could about there their they them then than this that " +
+            "what when where which with will have from your you're I'm it's don't can't didn't isn't " +
+            "lol okay yes yeah no not but and the for are was how who why all just like know think going " +
+            "hello hi hey ok good great see you later let me know what do you think ").getBytes(StandardCharsets.UTF_8);
+
+    private static final ThreadLocal<Deflater> DEFLATERS = ThreadLocal.withInitial(() -> {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        deflater.setDictionary(DICTIONARY);
+        return deflater;
+    });
+    private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    private ContentCompressor() {
+    }
+
+    /**
+     * @return The compressed content, or null if it should be sent uncompressed (disabled, too short, or no gain).
+     */
+    public static byte[] compress(byte[] content) {
+        if (!ENABLED || content.length < MIN_BYTES) {
+            return null;
+        }
+        Deflater deflater = DEFLATERS.get();
+        deflater.reset();
+        deflater.setDictionary(DICTIONARY); // reset() forgets it
+        deflater.setInput(content);
+        deflater.finish();
+        byte[] out = new byte[content.length]; // Anything that does not fit is not worth sending compressed
+        int length = 0;
+        while (!deflater.finished() && length < out.length) {
+            length += deflater.deflate(out, length, out.length - length);
+        }
+        if (!deflater.finished()) {
+            return null;
+        }
+        byte[] compressed = new byte[length];
+        System.arraycopy(out, 0, compressed, 0, length);
+        return compressed;
+    }
+
+    /**
+     * @throws DataFormatException If the data is corrupt or inflates past MAX_INFLATED_BYTES.
+     */
+    public static byte[] decompress(byte[] compressed) throws DataFormatException {
+        Inflater inflater = INFLATERS.get();
+        inflater.reset();
+        inflater.setInput(compressed);
+        inflater.setDictionary(DICTIONARY); // Raw deflate never asks for it, so set it up front
+        ByteArrayOutputStream out = new ByteArrayOutputStream(compressed.length * 4);
+        byte[] chunk = new byte[1024];
+        while (!inflater.finished()) {
+            int n = inflater.inflate(chunk);
+            if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                throw new DataFormatException("Truncated compressed content");
+            }
+            out.write(chunk, 0, n);
+            if (out.size() > MAX_INFLATED_BYTES) {
+                throw new DataFormatException("Compressed content inflates past " + MAX_INFLATED_BYTES + " bytes");
+            }
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,38 @@
+package com.somnath.common;
+
+/**
+ * Outcome of correcting a range of codeword blocks.
+ */
+public class CorrectionResult {
+
+    public static final CorrectionResult NONE = new CorrectionResult(0, 0);
+
+    private final int correctedBlocks;
+    private final int uncorrectableBlocks; // Detected but not fixable (e.g. double-bit errors under SECDED)
+
+    public CorrectionResult(int correctedBlocks, int uncorrectableBlocks) {
+        this.correctedBlocks = correctedBlocks;
+        this.uncorrectableBlocks = uncorrectableBlocks;
+    }
+
+    public int getCorrectedBlocks() { return correctedBlocks; }
+    public int getUncorrectableBlocks() { return uncorrectableBlocks; }
+
+    public boolean isErrorDetected() { return correctedBlocks > 0 || uncorrectableBlocks > 0; }
+
+    public CorrectionResult merge(CorrectionResult other) {
+        return new CorrectionResult(correctedBlocks + other.correctedBlocks, uncorrectableBlocks + other.uncorrectableBlocks);
+    }
+
+    /** Copies the outcome into the Message's error flags. */
+    public void applyTo(Message message) {
+        message.setErrorDetected(isErrorDetected());
+        message.setErrorCorrected(correctedBlocks > 0 && uncorrectableBlocks == 0);
+        message.setErrorUncorrectable(uncorrectableBlocks > 0);
+    }
+
+    @Override
+    public String toString() {
+        return "CorrectionResult{corrected=" + correctedBlocks + ", uncorrectable=" + uncorrectableBlocks + '}';
+    }
+}
@@ -0,0 +1,75 @@
+package com.somnath.common;
+
+import javax.crypto.Cipher;
+import javax.crypto.NoSuchPaddingException;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Per-thread cache of Cipher objects, so the provider lookup in Cipher.getInstance (and, for RSA,
+ * the key setup in init) happens once per thread instead of once per message.
+ * Cipher is not thread-safe, which is why the cache is thread-local rather than shared.
+ *
+ * RSA ciphers are kept initialized for the last key used per mode: doFinal resets them to the
+ * just-initialized state, so the next call with the same key skips init entirely.
+ * AES-GCM needs a new IV per message and is re-initialized every time; only the lookup is saved.
+ */
+public class CryptoEngine {
+
+    private static final ThreadLocal<Map<String, CachedCipher>> CACHE = ThreadLocal.withInitial(HashMap::new);
+
+    private static class CachedCipher {
+        final Cipher cipher;
+        Key key; // Key the cipher is currently initialized with (RSA only)
+
+        CachedCipher(Cipher cipher) {
+            this.cipher = cipher;
+        }
+    }
+
+    /**
+     * Returns this thread's Cipher instance for the transformation (not initialized by this method).
+     */
+    public static Cipher cipher(String transformation) throws NoSuchAlgorithmException, NoSuchPaddingException {
+        return cached(transformation).cipher;
+    }
+
+    /**
+     * Returns this thread's Cipher for the transformation, initialized with key in the given mode.
+     * init is skipped if the cipher was already initialized with the same key and mode.
+     * Only for algorithms without per-call parameters (such as RSA).
+     */
+    public static Cipher initialized(String transformation, int mode, Key key) throws GeneralSecurityException {
+        CachedCipher cached = cached(transformation + "#" + mode, transformation);
+        if (cached.key != key) {
+            cached.key = null; // In case init throws
+            cached.cipher.init(mode, key);
+            cached.key = key;
+        }
+        return cached.cipher;
+    }
+
+    /**
+     * Forgets the cached ciphers of the current thread, e.g. after a cipher failed mid-operation.
+     */
+    public static void clearThreadCache() {
+        CACHE.get().clear();
+    }
+
+    private static CachedCipher cached(String transformation) throws NoSuchAlgorithmException, NoSuchPaddingException {
+        return cached(transformation, transformation);
+    }
+
+    private static CachedCipher cached(String cacheKey, String transformation) throws NoSuchAlgorithmException, NoSuchPaddingException {
+        Map<String, CachedCipher> cache = CACHE.get();
+        CachedCipher cached = cache.get(cacheKey);
+        if (cached == null) {
+            cached = new CachedCipher(Cipher.getInstance(transformation));
+            cache.put(cacheKey, cached);
+        }
+        return cached;
+    }
+}
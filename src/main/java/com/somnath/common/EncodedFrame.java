@@ -0,0 +1,46 @@
+package com.somnath.common;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A protocol object encoded once into a complete BinaryFrameCodec frame, so a broadcast to many
+ * clients shares one immutable byte array instead of encoding the same Message per recipient.
+ *
+ * Channels on the binary wire write the bytes as they are. The legacy ObjectStreamChannel writes the
+ * original object instead, since each ObjectOutputStream keeps its own per-connection handle table.
+ */
+public final class EncodedFrame {
+
+    private final Object frame;
+    private final byte[] bytes; // Never modified after construction
+
+    private EncodedFrame(Object frame, byte[] bytes) {
+        this.frame = frame;
+        this.bytes = bytes;
+    }
+
+    public static EncodedFrame of(Object frame) throws IOException {
+        return new EncodedFrame(frame, BinaryFrameCodec.encode(frame));
+    }
+
+    // The object that was encoded
+    public Object getFrame() {
+        return frame;
+    }
+
+    // Frame length including the length prefix
+    public int length() {
+        return bytes.length;
+    }
+
+    // A read-only view with its own position, so every recipient can write the same bytes independently
+    public ByteBuffer buffer() {
+        return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+    }
+
+    // For BinaryFrameCodec; callers must not modify the array
+    byte[] bytes() {
+        return bytes;
+    }
+}
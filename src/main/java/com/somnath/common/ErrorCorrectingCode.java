@@ -0,0 +1,53 @@
+package com.somnath.common;
+
+/**
+ * A block error-correcting code over packed bits.
+ * Codewords are a sequence of fixed-size blocks; each block carries getDataBitsPerBlock() data bits
+ * in getBlockBits() coded bits. Implementations are stateless and safe to share between threads.
+ */
+public interface ErrorCorrectingCode {
+
+    /** Name recorded in Message.eccScheme so the receiver knows how to decode. */
+    String getName();
+
+    int getBlockBits();
+
+    int getDataBitsPerBlock();
+
+    /** Encodes the data bytes (most significant bit first) into packed codeword blocks. */
+    BitBuffer encode(byte[] data);
+
+    /**
+     * Corrects blocks [fromBlock, toBlock) of the codeword in place.
+     * Blocks that are detected as uncorrectable are left untouched.
+     */
+    CorrectionResult correctBlocks(BitBuffer codeword, int fromBlock, int toBlock);
+
+    /**
+     * Extracts the data bytes from a corrected codeword.
+     * @param dataLength Number of data bytes originally encoded (codes with large blocks pad the last one).
+     */
+    byte[] decode(BitBuffer corrected, int dataLength);
+
+    default int blockCount(BitBuffer codeword) {
+        return codeword.length() / getBlockBits();
+    }
+
+    /**
+     * Returns a corrected copy of the codeword and records the outcome on the Message,
+     * mirroring HammingUtil.correctError. Large codewords are corrected in parallel.
+     */
+    default BitBuffer correctError(BitBuffer errored, Message message) {
+        if (errored.length() % getBlockBits() != 0) {
+            System.err.println(getName() + " correct input length (" + errored.length() + ") not a multiple of " + getBlockBits() + "!");
+            message.setErrorDetected(false);
+            message.setErrorCorrected(false);
+            message.setErrorUncorrectable(false);
+            return errored;
+        }
+        BitBuffer corrected = errored.copy();
+        CorrectionResult result = ParallelCorrector.correctBlocks(this, corrected, 0, blockCount(corrected)); // Sequential for small codewords
+        result.applyTo(message);
+        return corrected;
+    }
+}
@@ -0,0 +1,38 @@
+package com.somnath.common;
+
+/**
+ * Registry of the available error-correcting codes.
+ * The client picks one per deployment with -Dchat.ecc=NAME (default HAMMING_7_4)
+ * and records it in each Message; the server decodes with whatever the Message says.
+ */
+public class ErrorCorrectingCodes {
+
+    public static final String HAMMING_7_4 = "HAMMING_7_4";     // 75% overhead, single error correction
+    public static final String SECDED_8_4 = "SECDED_8_4";       // 100% overhead, adds double error detection
+    public static final String SECDED_72_64 = "SECDED_72_64";   // 12.5% overhead, single correction + double detection
+
+    private static final ErrorCorrectingCode HAMMING_7_4_CODE = new Hamming74Code();
+    private static final ErrorCorrectingCode SECDED_8_4_CODE = new ExtendedHammingCode(SECDED_8_4, 4);
+    private static final ErrorCorrectingCode SECDED_72_64_CODE = new ExtendedHammingCode(SECDED_72_64, 64);
+
+    /**
+     * Looks up a code by name. A null name means a message from before codes were pluggable (Hamming(7,4)).
+     * @throws IllegalArgumentException If the name is unknown.
+     */
+    public static ErrorCorrectingCode forName(String name) {
+        if (name == null) {
+            return HAMMING_7_4_CODE;
+        }
+        switch (name) {
+            case HAMMING_7_4: return HAMMING_7_4_CODE;
+            case SECDED_8_4: return SECDED_8_4_CODE;
+            case SECDED_72_64: return SECDED_72_64_CODE;
+            default: throw new IllegalArgumentException("Unknown error-correcting code: " + name);
+        }
+    }
+
+    /** The code selected for this deployment via the chat.ecc system property. */
+    public static ErrorCorrectingCode configured() {
+        return forName(System.getProperty("chat.ecc", HAMMING_7_4));
+    }
+}
@@ -0,0 +1,149 @@
+package com.somnath.common;
+
+/**
+ * Extended Hamming SECDED code (single error correction, double error detection).
+ * Block layout, by bit index within the block:
+ *   0             overall parity over the whole block
+ *   1, 2, 4, ...  Hamming parity bits (powers of two)
+ *   the rest      data bits, in increasing index order
+ * The syndrome (XOR of the indices of all set bits) points at a single flipped bit;
+ * a non-zero syndrome with even overall parity means two bits flipped.
+ *
+ * dataBits = 4 gives Hamming(8,4); dataBits = 64 gives Hamming(72,64).
+ */
+public class ExtendedHammingCode implements ErrorCorrectingCode {
+
+    private final String name;
+    private final int dataBits;
+    private final int blockBits;
+    private final int[] dataIndex; // Data bit k -> index within the block
+
+    public ExtendedHammingCode(String name, int dataBits) {
+        if (dataBits < 1 || dataBits > 64) {
+            throw new IllegalArgumentException("Data bits per block must be 1..64: " + dataBits);
+        }
+        int parityBits = 0;
+        while ((1 << parityBits) < dataBits + parityBits + 1) {
+            parityBits++;
+        }
+        this.name = name;
+        this.dataBits = dataBits;
+        this.blockBits = dataBits + parityBits + 1;
+        this.dataIndex = new int[dataBits];
+        for (int index = 1, k = 0; k < dataBits; index++) {
+            if (Integer.bitCount(index) != 1) { // Not a power of two
+                dataIndex[k++] = index;
+            }
+        }
+    }
+
+    @Override
+    public String getName() { return name; }
+
+    @Override
+    public int getBlockBits() { return blockBits; }
+
+    @Override
+    public int getDataBitsPerBlock() { return dataBits; }
+
+    @Override
+    public BitBuffer encode(byte[] data) {
+        int totalBits = data.length * 8;
+        int blocks = (totalBits + dataBits - 1) / dataBits;
+        BitBuffer source = BitBuffer.fromByteArray(data, 0, totalBits);
+        BitBuffer encoded = new BitBuffer(blocks * blockBits);
+
+        for (int b = 0; b < blocks; b++) {
+            int start = b * dataBits;
+            long d = source.getBits(start, Math.min(dataBits, totalBits - start)); // Last block is zero-padded
+
+            long low = 0, high = 0; // Block bits 0-63 and 64+
+            int syndrome = 0;
+            while (d != 0) {
+                int k = Long.numberOfTrailingZeros(d);
+                d &= d - 1;
+                int index = dataIndex[k];
+                syndrome ^= index;
+                if (index < 64) low |= 1L << index; else high |= 1L << (index - 64);
+            }
+            // Parity bits make the syndrome of the whole block zero
+            for (int p = 1; p < blockBits; p <<= 1) {
+                if ((syndrome & p) != 0) {
+                    if (p < 64) low |= 1L << p; else high |= 1L << (p - 64);
+                }
+            }
+            // Overall parity makes the total number of set bits even
+            if (((Long.bitCount(low) + Long.bitCount(high)) & 1) != 0) {
+                low |= 1L;
+            }
+            writeBlock(encoded, b, low, high);
+        }
+        return encoded;
+    }
+
+    @Override
+    public CorrectionResult correctBlocks(BitBuffer codeword, int fromBlock, int toBlock) {
+        int corrected = 0;
+        int uncorrectable = 0;
+        for (int b = fromBlock; b < toBlock; b++) {
+            int offset = b * blockBits;
+            long low = codeword.getBits(offset, Math.min(64, blockBits));
+            long high = blockBits > 64 ? codeword.getBits(offset + 64, blockBits - 64) : 0;
+
+            int syndrome = syndromeOf(low, 0) ^ syndromeOf(high, 64);
+            boolean oddParity = ((Long.bitCount(low) + Long.bitCount(high)) & 1) != 0;
+
+            if (syndrome == 0 && !oddParity) {
+                continue; // Clean block
+            }
+            if (oddParity && syndrome < blockBits) {
+                codeword.flip(offset + syndrome); // Syndrome 0 here means the overall parity bit itself flipped
+                corrected++;
+            } else {
+                uncorrectable++; // Even parity with a non-zero syndrome: double-bit error
+            }
+        }
+        return new CorrectionResult(corrected, uncorrectable);
+    }
+
+    @Override
+    public byte[] decode(BitBuffer corrected, int dataLength) {
+        if (corrected.length() % blockBits != 0) {
+            throw new IllegalArgumentException(name + " corrected bit length (" + corrected.length() + ") must be a multiple of " + blockBits + ".");
+        }
+        int totalBits = dataLength * 8;
+        if (totalBits > blockCount(corrected) * dataBits) {
+            throw new IllegalArgumentException(name + " codeword too short for " + dataLength + " data bytes.");
+        }
+        BitBuffer data = new BitBuffer(totalBits);
+        for (int b = 0, start = 0; start < totalBits; b++, start += dataBits) {
+            int offset = b * blockBits;
+            long d = 0;
+            for (int k = 0; k < dataBits; k++) {
+                if (corrected.get(offset + dataIndex[k])) {
+                    d |= 1L << k;
+                }
+            }
+            data.setBits(start, Math.min(dataBits, totalBits - start), d);
+        }
+        return data.toByteArray();
+    }
+
+    private void writeBlock(BitBuffer encoded, int block, long low, long high) {
+        int offset = block * blockBits;
+        encoded.setBits(offset, Math.min(64, blockBits), low);
+        if (blockBits > 64) {
+            encoded.setBits(offset + 64, blockBits - 64, high);
+        }
+    }
+
+    // XOR of the block indices of all set bits in word (whose bit 0 is block index 'base')
+    private static int syndromeOf(long word, int base) {
+        int syndrome = 0;
+        while (word != 0) {
+            syndrome ^= base + Long.numberOfTrailingZeros(word);
+            word &= word - 1;
+        }
+        return syndrome;
+    }
+}
@@ -0,0 +1,36 @@
+package com.somnath.common;
+
+import java.util.Arrays;
+
+/**
+ * The original Hamming(7,4) code, backed by the packed HammingUtil codec.
+ * Corrects any single-bit error per 7-bit block but cannot detect double errors.
+ */
+public class Hamming74Code implements ErrorCorrectingCode {
+
+    @Override
+    public String getName() { return ErrorCorrectingCodes.HAMMING_7_4; }
+
+    @Override
+    public int getBlockBits() { return 7; }
+
+    @Override
+    public int getDataBitsPerBlock() { return 4; }
+
+    @Override
+    public BitBuffer encode(byte[] data) {
+        return HammingUtil.encode(data);
+    }
+
+    @Override
+    public CorrectionResult correctBlocks(BitBuffer codeword, int fromBlock, int toBlock) {
+        return new CorrectionResult(HammingUtil.correctBlocks(codeword, fromBlock, toBlock), 0);
+    }
+
+    @Override
+    public byte[] decode(BitBuffer corrected, int dataLength) {
+        byte[] bytes = HammingUtil.decode(corrected);
+        // Older messages carry no length; every byte maps to exactly two blocks anyway
+        return dataLength > 0 && dataLength < bytes.length ? Arrays.copyOf(bytes, dataLength) : bytes;
+    }
+}
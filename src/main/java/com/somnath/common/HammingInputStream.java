@@ -0,0 +1,127 @@
+package com.somnath.common;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads a stream produced by HammingOutputStream, correcting single-bit errors
+ * per 7-bit block and decoding back to the original bytes.
+ * Works over fixed-size chunks, so memory use does not depend on the payload size.
+ */
+public class HammingInputStream extends FilterInputStream {
+
+    private final byte[] coded;   // Raw encoded bytes for one chunk (multiple of 7)
+    private byte[] decoded = new byte[0];
+    private int position;         // Next byte of 'decoded' to hand out
+    private boolean eof;
+    private long correctedBlocks;
+
+    public HammingInputStream(InputStream in) {
+        this(in, HammingOutputStream.DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param chunkSize Decoded bytes per chunk; must be a multiple of 4 (need not match the writer's).
+     */
+    public HammingInputStream(InputStream in, int chunkSize) {
+        super(in);
+        if (chunkSize <= 0 || chunkSize % 4 != 0) {
+            throw new IllegalArgumentException("Chunk size must be a positive multiple of 4: " + chunkSize);
+        }
+        this.coded = new byte[chunkSize / 4 * 7];
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureData()) {
+            return -1;
+        }
+        return decoded[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!ensureData()) {
+            return -1;
+        }
+        int n = Math.min(len, decoded.length - position);
+        System.arraycopy(decoded, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n && ensureData()) {
+            int step = (int) Math.min(n - skipped, decoded.length - position);
+            position += step;
+            skipped += step;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return decoded.length - position;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+        // Not supported
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    /** Number of 7-bit blocks corrected so far; grows as the stream is read. */
+    public long getCorrectedBlockCount() {
+        return correctedBlocks;
+    }
+
+    // Decodes the next chunk if the current one is used up. Returns false at end of stream.
+    private boolean ensureData() throws IOException {
+        while (position == decoded.length) {
+            if (eof) {
+                return false;
+            }
+            decodeNextChunk();
+        }
+        return true;
+    }
+
+    private void decodeNextChunk() throws IOException {
+        int n = 0;
+        while (n < coded.length) {
+            int r = in.read(coded, n, coded.length - n);
+            if (r < 0) {
+                eof = true;
+                break;
+            }
+            n += r;
+        }
+
+        // Whole groups are 7 bytes; a final partial group of k data bytes is 2k bytes long
+        int remainder = n % 7;
+        if (remainder % 2 != 0) {
+            throw new IOException("Truncated Hamming stream: " + remainder + " trailing byte(s)");
+        }
+        int dataBytes = n / 7 * 4 + remainder / 2;
+
+        BitBuffer codeword = BitBuffer.fromByteArray(coded, 0, dataBytes * 14);
+        correctedBlocks += HammingUtil.correctBlocks(codeword, 0, dataBytes * 2);
+        decoded = HammingUtil.decode(codeword);
+        position = 0;
+    }
+}
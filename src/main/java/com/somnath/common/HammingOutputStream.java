@@ -0,0 +1,103 @@
+package com.somnath.common;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+/**
+ * Hamming(7,4)-encodes everything written to it, one fixed-size chunk at a time.
+ * Every 4 input bytes become exactly 7 output bytes (8 blocks of 7 bits, packed MSB first);
+ * a final partial group of 1-3 bytes becomes 2, 4 or 6 bytes. Read it back with HammingInputStream.
+ * Optionally flips one random bit per encoded chunk to simulate transmission errors.
+ */
+public class HammingOutputStream extends FilterOutputStream {
+
+    public static final int DEFAULT_CHUNK_SIZE = 4096; // Input bytes per encoded chunk (multiple of 4)
+
+    private static final Random random = new Random();
+
+    private final byte[] buffer;
+    private final boolean simulateErrors;
+    private int count; // Bytes currently buffered
+    private long injectedErrors;
+
+    public HammingOutputStream(OutputStream out) {
+        this(out, DEFAULT_CHUNK_SIZE, false);
+    }
+
+    public HammingOutputStream(OutputStream out, boolean simulateErrors) {
+        this(out, DEFAULT_CHUNK_SIZE, simulateErrors);
+    }
+
+    public HammingOutputStream(OutputStream out, int chunkSize, boolean simulateErrors) {
+        super(out);
+        if (chunkSize <= 0 || chunkSize % 4 != 0) {
+            throw new IllegalArgumentException("Chunk size must be a positive multiple of 4: " + chunkSize);
+        }
+        this.buffer = new byte[chunkSize];
+        this.simulateErrors = simulateErrors;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        buffer[count++] = (byte) b;
+        if (count == buffer.length) {
+            encodeBuffered(count);
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int n = Math.min(len, buffer.length - count);
+            System.arraycopy(b, off, buffer, count, n);
+            count += n;
+            off += n;
+            len -= n;
+            if (count == buffer.length) {
+                encodeBuffered(count);
+            }
+        }
+    }
+
+    /**
+     * Writes out all complete 4-byte groups and flushes the underlying stream.
+     * Up to 3 trailing bytes stay buffered until more data arrives or the stream is closed,
+     * since only the last group of the stream may be partial.
+     */
+    @Override
+    public void flush() throws IOException {
+        encodeBuffered(count - (count % 4));
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            encodeBuffered(count);
+        } finally {
+            super.close(); // Flushes and closes the underlying stream
+        }
+    }
+
+    /** Number of bits flipped so far by error simulation. */
+    public long getInjectedErrorCount() {
+        return injectedErrors;
+    }
+
+    // Encodes the first n buffered bytes and shifts any remainder to the front
+    private void encodeBuffered(int n) throws IOException {
+        if (n == 0) {
+            return;
+        }
+        BitBuffer encoded = HammingUtil.encode(buffer, 0, n);
+        if (simulateErrors) {
+            encoded.flip(random.nextInt(encoded.length()));
+            injectedErrors++;
+        }
+        out.write(encoded.toByteArray());
+        System.arraycopy(buffer, n, buffer, 0, count - n);
+        count -= n;
+    }
+}
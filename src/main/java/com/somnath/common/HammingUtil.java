@@ -7,6 +7,133 @@ public class HammingUtil {
 
     private static final Random random = new Random(); // Used for randomly flipping a bit in simulateError
 
+    // --- Packed-bit codec tables ---
+    // A 7-bit codeword is held in an int with bit k = index k of the block (p0 p1 p2 d3 d2 d1 d0),
+    // i.e. the same layout as the String view, just packed.
+    private static final int[] ENCODE_NIBBLE = new int[16];   // nibble (d3 d2 d1 d0) -> 7-bit codeword
+    private static final int[] ENCODE_BYTE = new int[256];    // byte -> two codewords (high nibble in bits 0-6)
+    private static final int[] DECODE_NIBBLE = new int[128];  // 7-bit codeword -> data nibble (no correction)
+
+    // Parity check masks over the 7-bit codeword (see correctError for the coverage)
+    private static final int CHECK_S0 = 0b1011001; // indices 0, 3, 4, 6
+    private static final int CHECK_S1 = 0b1101010; // indices 1, 3, 5, 6
+    private static final int CHECK_S2 = 0b1110100; // indices 2, 4, 5, 6
+
+    // Syndrome (s2 s1 s0) -> 0-based index of the flipped bit in the p0 p1 p2 d3 d2 d1 d0 layout.
+    // In this layout p2 sits at index 2 and d3 at index 3, so syndromes 3 and 4 are swapped
+    // compared to the textbook "syndrome - 1" position.
+    private static final int[] SYNDROME_TO_INDEX = {-1, 0, 1, 3, 2, 4, 5, 6};
+
+    // Received 7-bit block -> XOR mask that corrects it (0 when the syndrome is 0).
+    // correctBlocks looks each block up here instead of computing its syndrome bit by bit.
+    private static final int[] CORRECTION_MASK = new int[128];
+
+    static {
+        for (int n = 0; n < 16; n++) {
+            int d3 = (n >> 3) & 1, d2 = (n >> 2) & 1, d1 = (n >> 1) & 1, d0 = n & 1;
+            int p0 = d3 ^ d2 ^ d0;
+            int p1 = d3 ^ d1 ^ d0;
+            int p2 = d2 ^ d1 ^ d0;
+            ENCODE_NIBBLE[n] = p0 | (p1 << 1) | (p2 << 2) | (d3 << 3) | (d2 << 4) | (d1 << 5) | (d0 << 6);
+        }
+        for (int b = 0; b < 256; b++) {
+            ENCODE_BYTE[b] = ENCODE_NIBBLE[b >>> 4] | (ENCODE_NIBBLE[b & 0x0F] << 7);
+        }
+        for (int v = 0; v < 128; v++) {
+            DECODE_NIBBLE[v] = (((v >> 3) & 1) << 3) | (((v >> 4) & 1) << 2) | (((v >> 5) & 1) << 1) | ((v >> 6) & 1);
+            int syndrome = (Integer.bitCount(v & CHECK_S0) & 1)
+                    | ((Integer.bitCount(v & CHECK_S1) & 1) << 1)
+                    | ((Integer.bitCount(v & CHECK_S2) & 1) << 2);
+            CORRECTION_MASK[v] = syndrome == 0 ? 0 : 1 << SYNDROME_TO_INDEX[syndrome];
+        }
+    }
+
+    /**
+     * Hamming(7,4)-encodes raw bytes straight into a packed bit buffer.
+     * Each byte becomes two 7-bit blocks (high nibble first), so the result is
+     * bit-for-bit identical to encode(bytesToBinaryString(data)).
+     */
+    public static BitBuffer encode(byte[] data) {
+        return encode(data, 0, data.length);
+    }
+
+    /**
+     * Hamming(7,4)-encodes length bytes of data starting at offset.
+     */
+    public static BitBuffer encode(byte[] data, int offset, int length) {
+        BitBuffer encoded = new BitBuffer(length * 14);
+        for (int i = 0; i < length; i++) {
+            encoded.setBits(i * 14, 14, ENCODE_BYTE[data[offset + i] & 0xFF]);
+        }
+        return encoded;
+    }
+
+    /**
+     * Extracts the data bytes from a corrected packed codeword.
+     * A trailing odd block (padding nibble) is ignored.
+     */
+    public static byte[] decode(BitBuffer corrected) {
+        if (corrected.length() % 7 != 0) {
+            throw new IllegalArgumentException("Corrected bit length (" + corrected.length() + ") must be a multiple of 7.");
+        }
+        byte[] bytes = new byte[corrected.length() / 14];
+        for (int i = 0; i < bytes.length; i++) {
+            int pair = (int) corrected.getBits(i * 14, 14);
+            bytes[i] = (byte) ((DECODE_NIBBLE[pair & 0x7F] << 4) | DECODE_NIBBLE[pair >>> 7]);
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns a copy of the codeword with one random bit flipped.
+     */
+    public static BitBuffer simulateError(BitBuffer codeword) {
+        BitBuffer errored = codeword.copy();
+        if (errored.length() > 0) {
+            errored.flip(random.nextInt(errored.length()));
+        }
+        return errored;
+    }
+
+    /**
+     * Packed-bit counterpart of correctError(String, Message).
+     * The input is left untouched; a corrected copy is returned and the Message flags are updated.
+     */
+    public static BitBuffer correctError(BitBuffer errored, Message message) {
+        if (errored.length() % 7 != 0) {
+            System.err.println("Hamming correct input length (" + errored.length() + ") not a multiple of 7!");
+            message.setErrorDetected(false);
+            message.setErrorCorrected(false);
+            return errored;
+        }
+        BitBuffer corrected = errored.copy();
+        int correctedBlocks = correctBlocks(corrected, 0, corrected.length() / 7);
+        message.setErrorDetected(correctedBlocks > 0);
+        message.setErrorCorrected(correctedBlocks > 0);
+        message.setErrorUncorrectable(false); // Hamming(7,4) cannot tell a double error from a single one
+        return corrected;
+    }
+
+    /**
+     * Corrects blocks [fromBlock, toBlock) of a packed codeword in place.
+     * @return The number of blocks that had a non-zero syndrome (and were corrected).
+     */
+    static int correctBlocks(BitBuffer codeword, int fromBlock, int toBlock) {
+        int correctedBlocks = 0;
+        for (int block = fromBlock, bit = fromBlock * 7; block < toBlock; block++, bit += 7) {
+            int v = (int) codeword.getBits(bit, 7);
+            int mask = CORRECTION_MASK[v];
+            if (mask != 0) {
+                codeword.setBits(bit, 7, v ^ mask);
+                correctedBlocks++;
+            }
+        }
+        return correctedBlocks;
+    }
+
+    // --- String-based codec ---
+    // Kept as a human-readable debug view of the packed codec above; the network path no longer uses it.
+
     /**
      * Converts a byte array into a binary string (padded to 8 bits per byte).
      */
@@ -179,14 +306,13 @@ public class HammingUtil {
             int s1 = r_p1 ^ r_d3 ^ r_d1 ^ r_d0;
             int s2 = r_p2 ^ r_d2 ^ r_d1 ^ r_d0;
 
-            // Syndrome word: s2 s1 s0 (Binary representation of the 1-based error position, from 1 to 7)
+            // Syndrome word: s2 s1 s0 (non-zero means one bit in this block is flipped; see SYNDROME_TO_INDEX)
             int syndrome = (s2 << 2) | (s1 << 1) | s0;
 
             if (syndrome != 0) {
                 // If syndrome is non-zero, an error was detected in this block.
-                // Syndrome value (1-7) corresponds to the position of the error bit (1-based).
-                // Convert 1-based index to 0-based index within the block (0-6).
-                int errorIndexInBlock = syndrome - 1;
+                // Map the syndrome value (1-7) to the 0-based index of the error bit within the block (0-6).
+                int errorIndexInBlock = SYNDROME_TO_INDEX[syndrome];
 
                 // Check if the calculated error index is within the valid range (0-6) for a 7-bit block.
                 // A syndrome of 0 means no error. A non-zero syndrome outside 1-7 is impossible for a single-bit error in (7,4).
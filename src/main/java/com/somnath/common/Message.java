@@ -4,7 +4,10 @@ import java.io.Serializable;
 import java.util.Base64;
 
 public class Message implements Serializable {
-    private static final long serialVersionUID = 3L; // Increment serial version ID again
+    private static final long serialVersionUID = 8L; // Added compressed
+
+    public static final String CIPHER_RSA = "RSA";
+    public static final String CIPHER_AES_GCM = "AES_GCM";
 
     private String sender;
     private String recipient; // null for group message, username for private message
@@ -14,12 +17,19 @@ public class Message implements Serializable {
     private String contentToEncrypt;
 
     // States during processing
-    private String encryptedContentBase64; // Base64 of RSA encrypted bytes of contentToEncrypt
-    private String hammingEncodedBinary; // Binary string after Hamming encoding (client-side before error)
-    private String erroredHammingBinary; // Binary string after error simulation (what is sent)
-    private String correctedHammingBinary; // Binary string after Hamming correction (server-side)
+    private String cipher; // CIPHER_AES_GCM (session key) or CIPHER_RSA; null means RSA (older clients)
+    private String encryptedContentBase64; // Base64 of the encrypted bytes of contentToEncrypt
+    private String eccScheme; // ErrorCorrectingCodes name used for the coded stages (null = Hamming(7,4))
+    private int payloadLength; // Number of encrypted bytes that were ECC-encoded
+    private boolean compressed; // contentToEncrypt was deflated (ContentCompressor) before encryption
+    private BitBuffer hammingEncoded; // Packed bits after Hamming encoding (client-side before error)
+    private BitBuffer erroredHamming; // Packed bits after error simulation (what is sent)
+    private BitBuffer correctedHamming; // Packed bits after Hamming correction (server-side)
     private String finalDecryptedContent; // The final readable message body after server decryption
 
+    // Lean delivery: the server strips the pipeline stages above and keeps them under this id
+    private long traceId; // 0 = no trace (stages are inline or were never produced)
+
     // Flags to indicate processing outcome
     private boolean errorDetected = false;
 
@@ -44,9 +54,11 @@ public class Message implements Serializable {
     }
 
     private boolean errorCorrected = false;
+    private boolean errorUncorrectable = false; // Detected but not fixable (SECDED double-bit error)
 
     // --- Add this field to control expanded view ---
     private transient boolean expanded = false; // 'transient' means it won't be serialized/sent over network
+    private transient boolean traceFetched = false; // Client-side: trace already requested/applied
 
     // --- Constructor ---
     // Client will typically create this object
@@ -65,14 +77,33 @@ public class Message implements Serializable {
     public String getContentToEncrypt() { return contentToEncrypt; } // Just the message body
 
     public String getEncryptedContentBase64() { return encryptedContentBase64; }
-    public String getHammingEncodedBinary() { return hammingEncodedBinary; }
-    public String getErroredHammingBinary() { return erroredHammingBinary; }
-    public String getCorrectedHammingBinary() { return correctedHammingBinary; }
+    public String getCipher() { return cipher; }
+    public boolean isSessionEncrypted() { return CIPHER_AES_GCM.equals(cipher); }
+    public String getEccScheme() { return eccScheme; }
+    public int getPayloadLength() { return payloadLength; }
+    public boolean isCompressed() { return compressed; }
+    public BitBuffer getHammingEncoded() { return hammingEncoded; }
+    public BitBuffer getErroredHamming() { return erroredHamming; }
+    public BitBuffer getCorrectedHamming() { return correctedHamming; }
+
+    // '0'/'1' String views of the Hamming stages, built on demand for display/debugging only
+    public String getHammingEncodedBinary() { return hammingEncoded != null ? hammingEncoded.toBinaryString() : null; }
+    public String getErroredHammingBinary() { return erroredHamming != null ? erroredHamming.toBinaryString() : null; }
+    public String getCorrectedHammingBinary() { return correctedHamming != null ? correctedHamming.toBinaryString() : null; }
     public String getFinalDecryptedContent() { return finalDecryptedContent; }
 
+    public long getTraceId() { return traceId; }
+    public void setTraceId(long traceId) { this.traceId = traceId; }
+
+    // True if the pipeline stages were stripped by the server and have not been fetched yet
+    public boolean needsTrace() { return traceId != 0 && erroredHamming == null && !traceFetched; }
+    public boolean isTraceFetched() { return traceFetched; }
+    public void setTraceFetched(boolean traceFetched) { this.traceFetched = traceFetched; }
+
     public boolean isPrivateMessage() { return recipient != null && !recipient.trim().isEmpty(); }
     public boolean isErrorDetected() { return errorDetected; }
     public boolean isErrorCorrected() { return errorCorrected; }
+    public boolean isErrorUncorrectable() { return errorUncorrectable; }
 
     // --- Getter/Setter for the expanded state ---
     public boolean isExpanded() { return expanded; }
@@ -82,15 +113,41 @@ public class Message implements Serializable {
     // --- Setters (Needed by Client/Server to populate) ---
     // Client side populates:
     public void setEncryptedContentBase66(String encryptedContentBase64) { this.encryptedContentBase64 = encryptedContentBase64; }
-    public void setHammingEncodedBinary(String hammingEncodedBinary) { this.hammingEncodedBinary = hammingEncodedBinary; }
-    public void setErroredHammingBinary(String erroredHammingBinary) { this.erroredHammingBinary = erroredHammingBinary; }
+    public void setCipher(String cipher) { this.cipher = cipher; }
+    public void setEccScheme(String eccScheme) { this.eccScheme = eccScheme; }
+    public void setPayloadLength(int payloadLength) { this.payloadLength = payloadLength; }
+    public void setCompressed(boolean compressed) { this.compressed = compressed; }
+    public void setHammingEncoded(BitBuffer hammingEncoded) { this.hammingEncoded = hammingEncoded; }
+    public void setErroredHamming(BitBuffer erroredHamming) { this.erroredHamming = erroredHamming; }
+    public void setHammingEncodedBinary(String hammingEncodedBinary) { this.hammingEncoded = hammingEncodedBinary != null ? BitBuffer.fromBinaryString(hammingEncodedBinary) : null; }
+    public void setErroredHammingBinary(String erroredHammingBinary) { this.erroredHamming = erroredHammingBinary != null ? BitBuffer.fromBinaryString(erroredHammingBinary) : null; }
 
     // Server side populates:
-    public void setCorrectedHammingBinary(String correctedHammingBinary) { this.correctedHammingBinary = correctedHammingBinary; }
+    public void setCorrectedHamming(BitBuffer correctedHamming) { this.correctedHamming = correctedHamming; }
+    public void setCorrectedHammingBinary(String correctedHammingBinary) { this.correctedHamming = correctedHammingBinary != null ? BitBuffer.fromBinaryString(correctedHammingBinary) : null; }
     public void setFinalDecryptedContent(String finalDecryptedContent) { this.finalDecryptedContent = finalDecryptedContent; }
     public void setErrorDetected(boolean errorDetected) { this.errorDetected = errorDetected; }
     public void setErrorCorrected(boolean errorCorrected) { this.errorCorrected = errorCorrected; }
-
+    public void setErrorUncorrectable(boolean errorUncorrectable) { this.errorUncorrectable = errorUncorrectable; }
+
+
+    /**
+     * Copy for lean delivery: routing information, final content and outcome flags only.
+     * The pipeline stages stay on the server under traceId.
+     */
+    public Message leanCopy(long traceId) {
+        Message lean = new Message(sender, fullOriginalText, recipient, null);
+        lean.cipher = cipher;
+        lean.eccScheme = eccScheme;
+        lean.payloadLength = payloadLength;
+        lean.compressed = compressed;
+        lean.finalDecryptedContent = finalDecryptedContent;
+        lean.errorDetected = errorDetected;
+        lean.errorCorrected = errorCorrected;
+        lean.errorUncorrectable = errorUncorrectable;
+        lean.traceId = traceId;
+        return lean;
+    }
 
     @Override
     public String toString() {
@@ -0,0 +1,24 @@
+package com.somnath.common;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Several client messages sent as one frame (client-side batching, -Dchat.batch.windowMillis).
+ * The server processes and routes them in order, as if they had arrived one by one.
+ */
+public class MessageBatch implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final List<Message> messages;
+
+    public MessageBatch(List<Message> messages) {
+        this.messages = Collections.unmodifiableList(new ArrayList<>(messages));
+    }
+
+    public List<Message> getMessages() { return messages; }
+
+    public int size() { return messages.size(); }
+}
@@ -0,0 +1,45 @@
+package com.somnath.common;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A bidirectional connection carrying the chat protocol's objects:
+ * the server's PublicKey, the client's username (String), the wrapped session key (byte[])
+ * and Messages. Implemented by the binary framing (BinaryMessageChannel) and by plain
+ * Java serialization (ObjectStreamChannel, legacy mode).
+ */
+public interface MessageChannel extends Closeable {
+
+    void writeObject(Object frame) throws IOException;
+
+    /**
+     * Blocks for the next object. Throws EOFException when the peer has closed the connection.
+     */
+    Object readObject() throws IOException, ClassNotFoundException;
+
+    void flush() throws IOException;
+
+    /**
+     * Approximate bytes of written objects this channel keeps reachable between writes
+     * (the legacy stream's handle table). 0 for channels that retain nothing.
+     */
+    default long retainedBytes() {
+        return 0;
+    }
+
+    /**
+     * Rejects incoming frames longer than this from now on (a server lowers it until the client has logged in).
+     * Ignored by channels that cannot tell frame lengths before reading them.
+     */
+    default void setMaxFrameLength(int maxLength) {
+    }
+
+    /**
+     * Nanoseconds the last readObject() spent reading and decoding its frame once the frame started to
+     * arrive, i.e. without the wait for the peer. -1 if the channel cannot tell the two apart.
+     */
+    default long lastReadNanos() {
+        return -1;
+    }
+}
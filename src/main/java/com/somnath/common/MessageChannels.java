@@ -0,0 +1,29 @@
+package com.somnath.common;
+
+import java.io.IOException;
+import java.net.Socket;
+
+/**
+ * Opens the MessageChannel for a socket according to -Dchat.wire:
+ * "binary" (default) or "legacy" (Java serialization). Client and server must use the same setting.
+ */
+public class MessageChannels {
+
+    public static final String BINARY = "binary";
+    public static final String LEGACY = "legacy";
+
+    public static String configuredWire() {
+        return System.getProperty("chat.wire", BINARY);
+    }
+
+    public static boolean isLegacy() {
+        return LEGACY.equalsIgnoreCase(configuredWire());
+    }
+
+    public static MessageChannel open(Socket socket) throws IOException {
+        if (isLegacy()) {
+            return new ObjectStreamChannel(socket.getInputStream(), socket.getOutputStream());
+        }
+        return new BinaryMessageChannel(socket.getInputStream(), socket.getOutputStream());
+    }
+}
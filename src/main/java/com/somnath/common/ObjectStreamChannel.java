@@ -0,0 +1,90 @@
+package com.somnath.common;
+
+import java.io.*;
+
+/**
+ * Legacy MessageChannel over Java object serialization (-Dchat.wire=legacy).
+ *
+ * An ObjectOutputStream remembers every object it has written (so it can send back-references), which keeps
+ * every Message of a long-lived connection reachable. The stream is therefore reset after
+ * -Dchat.wire.resetObjects objects (default 256) or -Dchat.wire.resetBytes bytes (default 1 MiB), whichever
+ * comes first; the reset also clears the peer's ObjectInputStream table.
+ */
+public class ObjectStreamChannel implements MessageChannel {
+
+    private static final int RESET_OBJECTS = Integer.getInteger("chat.wire.resetObjects", 256);
+    private static final long RESET_BYTES = Long.getLong("chat.wire.resetBytes", 1024 * 1024);
+
+    private final CountingOutputStream counter;
+    private final ObjectOutputStream outputStream;
+    private final ObjectInputStream inputStream;
+    private int objectsSinceReset;
+    private volatile long bytesAtReset; // Read by memory reports on other threads
+
+    public ObjectStreamChannel(InputStream in, OutputStream out) throws IOException {
+        // Output first: the ObjectInputStream constructor blocks until the peer's stream header arrives
+        this.counter = new CountingOutputStream(out);
+        this.outputStream = new ObjectOutputStream(counter);
+        this.outputStream.flush();
+        this.inputStream = new ObjectInputStream(in);
+    }
+
+    @Override
+    public void writeObject(Object frame) throws IOException {
+        if (frame instanceof EncodedFrame) {
+            frame = ((EncodedFrame) frame).getFrame(); // Binary bytes mean nothing on this wire
+        }
+        outputStream.writeObject(frame);
+        if (++objectsSinceReset >= RESET_OBJECTS || retainedBytes() >= RESET_BYTES) {
+            outputStream.reset();
+            objectsSinceReset = 0;
+            bytesAtReset = counter.count;
+        }
+    }
+
+    @Override
+    public Object readObject() throws IOException, ClassNotFoundException {
+        return inputStream.readObject();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        outputStream.flush();
+    }
+
+    // Bytes written since the last reset, an upper bound on what the handle table keeps reachable
+    // (counted as the stream's block buffer is drained, so up to 1 KiB behind)
+    @Override
+    public long retainedBytes() {
+        return counter.count - bytesAtReset;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            inputStream.close();
+        } finally {
+            outputStream.close();
+        }
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        volatile long count; // Only the writing thread updates it
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.somnath.common;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Splits the correction of a large codeword into segments run on a ForkJoinPool.
+ * Blocks are independent, so segments only need to avoid sharing a long word of the BitBuffer:
+ * every split point is a multiple of 64 blocks, which always lands on a word boundary.
+ * Below the threshold (-Dchat.ecc.parallelThreshold, in blocks) correction stays on the calling thread.
+ */
+public class ParallelCorrector {
+
+    public static final int DEFAULT_THRESHOLD_BLOCKS = 8192;
+
+    private static final int ALIGNMENT_BLOCKS = 64; // 64 blocks * blockBits is always a whole number of words
+    // At least two alignment units, so the aligned midpoint always leaves both halves non-empty
+    private static final int THRESHOLD_BLOCKS =
+            Math.max(2 * ALIGNMENT_BLOCKS, Integer.getInteger("chat.ecc.parallelThreshold", DEFAULT_THRESHOLD_BLOCKS));
+
+    /**
+     * Corrects blocks [fromBlock, toBlock) in place, in parallel if the range is large enough.
+     * fromBlock must be a multiple of 64 when the range exceeds the threshold (0 always is).
+     */
+    public static CorrectionResult correctBlocks(ErrorCorrectingCode code, BitBuffer codeword, int fromBlock, int toBlock) {
+        if (toBlock - fromBlock <= THRESHOLD_BLOCKS) {
+            return code.correctBlocks(codeword, fromBlock, toBlock);
+        }
+        return ForkJoinPool.commonPool().invoke(new CorrectionTask(code, codeword, fromBlock, toBlock));
+    }
+
+    @SuppressWarnings("serial") // ForkJoinTask is Serializable, but these never leave the pool
+    private static class CorrectionTask extends RecursiveTask<CorrectionResult> {
+        private final ErrorCorrectingCode code;
+        private final BitBuffer codeword;
+        private final int fromBlock;
+        private final int toBlock;
+
+        CorrectionTask(ErrorCorrectingCode code, BitBuffer codeword, int fromBlock, int toBlock) {
+            this.code = code;
+            this.codeword = codeword;
+            this.fromBlock = fromBlock;
+            this.toBlock = toBlock;
+        }
+
+        @Override
+        protected CorrectionResult compute() {
+            if (toBlock - fromBlock <= THRESHOLD_BLOCKS) {
+                return code.correctBlocks(codeword, fromBlock, toBlock);
+            }
+            int mid = fromBlock + (toBlock - fromBlock) / 2;
+            mid -= mid % ALIGNMENT_BLOCKS; // Keep both halves on separate words
+            if (mid <= fromBlock) {
+                return code.correctBlocks(codeword, fromBlock, toBlock); // No aligned split inside the range
+            }
+            CorrectionTask left = new CorrectionTask(code, codeword, fromBlock, mid);
+            CorrectionTask right = new CorrectionTask(code, codeword, mid, toBlock);
+            left.fork();
+            CorrectionResult rightResult = right.compute();
+            return left.join().merge(rightResult);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.somnath.common;
+
+import java.io.Serializable;
+
+/**
+ * The intermediate pipeline stages of one message (ciphertext and the ECC bit buffers),
+ * kept by the server and fetched by a client only when the user opens "Show Details".
+ * A trace with no stages means the server no longer has it (or the requester may not see it).
+ */
+public class PipelineTrace implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final long traceId;
+    private final String encryptedContentBase64;
+    private final BitBuffer hammingEncoded;
+    private final BitBuffer erroredHamming;
+    private final BitBuffer correctedHamming;
+
+    public PipelineTrace(long traceId, String encryptedContentBase64, BitBuffer hammingEncoded,
+                         BitBuffer erroredHamming, BitBuffer correctedHamming) {
+        this.traceId = traceId;
+        this.encryptedContentBase64 = encryptedContentBase64;
+        this.hammingEncoded = hammingEncoded;
+        this.erroredHamming = erroredHamming;
+        this.correctedHamming = correctedHamming;
+    }
+
+    /** Captures the stages of a fully processed message. */
+    public static PipelineTrace of(long traceId, Message msg) {
+        return new PipelineTrace(traceId, msg.getEncryptedContentBase64(), msg.getHammingEncoded(),
+                msg.getErroredHamming(), msg.getCorrectedHamming());
+    }
+
+    /** Reply for a trace id the server cannot serve. */
+    public static PipelineTrace unavailable(long traceId) {
+        return new PipelineTrace(traceId, null, null, null, null);
+    }
+
+    public long getTraceId() { return traceId; }
+    public String getEncryptedContentBase64() { return encryptedContentBase64; }
+    public BitBuffer getHammingEncoded() { return hammingEncoded; }
+    public BitBuffer getErroredHamming() { return erroredHamming; }
+    public BitBuffer getCorrectedHamming() { return correctedHamming; }
+
+    public boolean isAvailable() { return erroredHamming != null; }
+
+    /** Fills the pipeline stages of a lean message received earlier. */
+    public void applyTo(Message msg) {
+        msg.setEncryptedContentBase64(encryptedContentBase64);
+        msg.setHammingEncoded(hammingEncoded);
+        msg.setErroredHamming(erroredHamming);
+        msg.setCorrectedHamming(correctedHamming);
+        msg.setTraceFetched(true);
+    }
+}
@@ -26,29 +26,37 @@ public class RSAUtil {
     /**
      * Encrypts data using a public key.
      * Client will use this with server's public key.
+     * Reuses this thread's cipher (see CryptoEngine) when the key has not changed.
      * @param data The data to encrypt.
      * @param publicKey The public key for encryption.
      * @return The encrypted data bytes.
      * @throws Exception If encryption fails.
      */
     public static byte[] encrypt(byte[] data, PublicKey publicKey) throws Exception {
-        Cipher cipher = Cipher.getInstance(ALGORITHM);
-        cipher.init(Cipher.ENCRYPT_MODE, publicKey);
-        return cipher.doFinal(data);
+        return doFinal(CryptoEngine.initialized(ALGORITHM, Cipher.ENCRYPT_MODE, publicKey), data);
     }
 
     /**
      * Decrypts data using a private key.
      * Server will use this with its private key.
+     * Reuses this thread's cipher (see CryptoEngine) when the key has not changed.
      * @param data The data to decrypt.
      * @param privateKey The private key for decryption.
      * @return The decrypted data bytes.
      * @throws Exception If decryption fails.
      */
     public static byte[] decrypt(byte[] data, PrivateKey privateKey) throws Exception {
-        Cipher cipher = Cipher.getInstance(ALGORITHM);
-        cipher.init(Cipher.DECRYPT_MODE, privateKey);
-        return cipher.doFinal(data);
+        return doFinal(CryptoEngine.initialized(ALGORITHM, Cipher.DECRYPT_MODE, privateKey), data);
+    }
+
+    // Runs a cached cipher; on failure its state is unknown, so the thread's cache is dropped
+    private static byte[] doFinal(Cipher cipher, byte[] data) throws Exception {
+        try {
+            return cipher.doFinal(data);
+        } catch (Exception e) {
+            CryptoEngine.clearThreadCache();
+            throw e;
+        }
     }
 
     /**
@@ -0,0 +1,28 @@
+package com.somnath.common;
+
+import java.io.Serializable;
+
+/**
+ * Sent by a reconnecting client instead of its username: picks up an existing session (and its AES session key)
+ * without a new key exchange. The server replays every SequencedFrame after lastSequence it still has.
+ */
+public class ResumeRequest implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String username;
+    private final byte[] token;
+    private final long lastSequence;
+
+    public ResumeRequest(String username, byte[] token, long lastSequence) {
+        this.username = username;
+        this.token = token;
+        this.lastSequence = lastSequence;
+    }
+
+    public String getUsername() { return username; }
+
+    public byte[] getToken() { return token; }
+
+    // Highest sequence number the client has received; 0 if none
+    public long getLastSequence() { return lastSequence; }
+}
@@ -0,0 +1,27 @@
+package com.somnath.common;
+
+import java.io.Serializable;
+
+/**
+ * A routed frame numbered within the recipient's session, so a client that reconnects can tell the server
+ * the last one it got (ResumeRequest) and receive only what it missed, without duplicates.
+ *
+ * The inner frame is usually an EncodedFrame shared by every recipient of a broadcast; only the
+ * sequence number is per recipient. Channels write BinaryFrameCodec.sequenceHeader() followed by the
+ * shared bytes, so the inner frame is never copied per recipient.
+ */
+public class SequencedFrame implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final long sequence;
+    private final Object frame;
+
+    public SequencedFrame(long sequence, Object frame) {
+        this.sequence = sequence;
+        this.frame = frame;
+    }
+
+    public long getSequence() { return sequence; }
+
+    public Object getFrame() { return frame; }
+}
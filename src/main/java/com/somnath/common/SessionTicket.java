@@ -0,0 +1,38 @@
+package com.somnath.common;
+
+import java.io.Serializable;
+
+/**
+ * Server reply that opens or resumes a session.
+ *
+ * After a login it carries the token the client presents to resume later. After a ResumeRequest it confirms
+ * the resume and says how many client messages the server has already taken, so the client resends only the
+ * rest; the missed frames follow it. A ticket without a token means the session is gone and the client
+ * must log in again (username and session key) on the same connection.
+ */
+public class SessionTicket implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final byte[] token;
+    private final long receivedCount;
+    private final boolean resumed;
+
+    public SessionTicket(byte[] token, long receivedCount, boolean resumed) {
+        this.token = token;
+        this.receivedCount = receivedCount;
+        this.resumed = resumed;
+    }
+
+    public static SessionTicket refused() {
+        return new SessionTicket(null, 0, false);
+    }
+
+    public boolean isRefused() { return token == null; }
+
+    public byte[] getToken() { return token; }
+
+    // Messages from the client the server has accepted on this session so far
+    public long getReceivedCount() { return receivedCount; }
+
+    public boolean isResumed() { return resumed; }
+}
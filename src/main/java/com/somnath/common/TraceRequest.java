@@ -0,0 +1,18 @@
+package com.somnath.common;
+
+import java.io.Serializable;
+
+/**
+ * Client request for the PipelineTrace of a lean message.
+ */
+public class TraceRequest implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final long traceId;
+
+    public TraceRequest(long traceId) {
+        this.traceId = traceId;
+    }
+
+    public long getTraceId() { return traceId; }
+}
@@ -0,0 +1,38 @@
+package com.somnath.server;
+
+import com.somnath.common.Message;
+import com.somnath.common.SequencedFrame;
+
+/**
+ * One connected client as seen by the routing code, whichever engine owns the socket
+ * (a ClientHandler thread, or a connection multiplexed by NioServerEngine).
+ */
+public interface ClientConnection {
+
+    String getUsername();
+
+    // Sends a routed chat message (or server notice) to this client
+    void sendMessage(Message msg);
+
+    // Sends any protocol object (Message, PipelineTrace, or an EncodedFrame shared by several recipients) to this client
+    void sendObject(Object msg);
+
+    /**
+     * Queues a routed frame of session without ever dropping queued frames for it, and without waiting: the session
+     * calls this with its lock held. Without room the frame is not queued and false is returned; the connection then
+     * calls session.pump(this) once its queue has drained.
+     */
+    default boolean offerSequenced(SequencedFrame frame, ClientSession session) {
+        sendObject(frame);
+        return true;
+    }
+
+    // Closes the connection from another thread; the owner's usual cleanup still runs
+    void disconnect();
+
+    // Bytes queued for this client and not yet taken by its writer
+    long getBufferedBytes();
+
+    // Bytes the connection's stream state keeps reachable (see MessageChannel.retainedBytes)
+    long getRetainedBytes();
+}
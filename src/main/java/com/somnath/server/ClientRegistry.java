@@ -0,0 +1,94 @@
+package com.somnath.server;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Connected clients by username, shared by every handler thread without a global lock.
+ *
+ * reserve() claims a name atomically, so two clients can no longer both pass a "name taken?" check,
+ * and release() only frees the name for the connection that holds it. Broadcasts iterate an immutable
+ * snapshot that is rebuilt lazily after joins and leaves: routing never locks out a join or leave,
+ * and a join or leave never changes a broadcast that is already under way.
+ */
+public class ClientRegistry {
+
+    private final ConcurrentHashMap<String, ClientConnection> byName = new ConcurrentHashMap<>();
+    private final AtomicLong version = new AtomicLong(); // Bumped after every change to byName
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>(new Snapshot(0, new ClientConnection[0]));
+
+    /**
+     * Registers a connection under a username.
+     * @return false if another connection already holds the name.
+     */
+    public boolean reserve(String username, ClientConnection connection) {
+        if (byName.putIfAbsent(username, connection) != null) {
+            return false;
+        }
+        version.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Frees a username, but only if this connection holds it (a client rejected for a taken name must not
+     * remove the client that has it).
+     * @return true if the connection was registered.
+     */
+    public boolean release(String username, ClientConnection connection) {
+        if (username == null || !byName.remove(username, connection)) {
+            return false;
+        }
+        version.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Hands a username from one connection to another, if the first still holds it.
+     * @return false if the name is now held by someone else, or by no one.
+     */
+    public boolean replace(String username, ClientConnection current, ClientConnection replacement) {
+        if (!byName.replace(username, current, replacement)) {
+            return false;
+        }
+        version.incrementAndGet();
+        return true;
+    }
+
+    public ClientConnection get(String username) {
+        return byName.get(username);
+    }
+
+    public int size() {
+        return byName.size();
+    }
+
+    /**
+     * All connected clients at some moment at or after the last completed join or leave.
+     * The list is immutable and may be iterated while clients come and go.
+     */
+    public List<ClientConnection> snapshot() {
+        long current = version.get();
+        Snapshot cached = snapshot.get();
+        if (cached.version == current) {
+            return cached.members;
+        }
+        // Built after reading the version, so it contains every change up to it
+        Snapshot rebuilt = new Snapshot(current, byName.values().toArray(new ClientConnection[0]));
+        snapshot.compareAndSet(cached, rebuilt); // A losing thread still uses its own, equally fresh copy
+        return rebuilt.members;
+    }
+
+    private static final class Snapshot {
+        final long version;
+        final List<ClientConnection> members;
+
+        Snapshot(long version, ClientConnection[] members) {
+            this.version = version;
+            this.members = Collections.unmodifiableList(Arrays.asList(members));
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package com.somnath.server;
+
+import com.somnath.common.Message;
+import com.somnath.common.SequencedFrame;
+import com.somnath.common.SessionTicket;
+
+import javax.crypto.SecretKey;
+import java.security.KeyPair;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A logged-in user, outliving the connection it arrived on. This is what the ClientRegistry holds and
+ * what routing sends to.
+ *
+ * Every routed frame gets the session's next sequence number and is kept in a bounded replay buffer
+ * (-Dchat.resume.bufferMessages) before it goes to the current connection, if there is one. Routed frames are
+ * handed to the connection's outbound queue only while it has room (offerSequenced); the rest wait here and are
+ * pumped in order as the queue drains, so the overflow policy never drops one the client would then miss.
+ * Only a client that falls behind by the whole buffer loses frames (or is disconnected, with DISCONNECT; with BLOCK the
+ * routing thread waits for it instead, on a condition that gives up the lock, so a resume can still attach). A client that
+ * reconnects with the session's token (ResumeRequest) is attached to the session again and gets the frames
+ * after the last one it saw, with the session key it already has. While no connection is attached, frames
+ * are only buffered; the server expires the session after -Dchat.resume.graceSeconds.
+ *
+ * Buffered frames are weighed like queued ones and reserved in the server's MemoryBudget until they are overwritten
+ * or the session is retired; they count as the session's retained bytes.
+ *
+ * Numbering, buffering, forwarding and attaching all happen under one lock, so a replay can neither skip a frame
+ * nor overtake one that is being routed at the same time.
+ */
+public class ClientSession implements ClientConnection {
+
+    static final int BUFFER_MESSAGES = Math.max(1, Integer.getInteger("chat.resume.bufferMessages", 512));
+    private static final OverflowPolicy POLICY = OverflowPolicy.configured();
+    private static final int TOKEN_BYTES = 16;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final String username;
+    private final byte[] token = new byte[TOKEN_BYTES];
+    private final KeyPair handshakeKeyPair; // The key pair the client's session key was wrapped with
+    private final MemoryBudget budget;
+    private volatile SecretKey sessionKey;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition queuedMore = lock.newCondition(); // BLOCK senders wait on this for the connection to catch up
+    private final SequencedFrame[] replay = new SequencedFrame[BUFFER_MESSAGES]; // Ring, by sequence number
+    private final int[] replayWeights = new int[BUFFER_MESSAGES]; // Server.weigh of each buffered frame
+    private volatile long replayBytes; // Written under the lock; read without it for stats
+    private long lastSequence;
+    private long queuedThrough; // Last frame handed to the current connection's queue
+    private long lostFrames; // Frames the current connection fell too far behind to get
+    private long receivedCount; // Client messages accepted on this session, across connections
+    private volatile ClientConnection current; // Written under the lock; read without it for stats and disconnect
+    private long detachGeneration; // Bumped on every detach, so a stale expiry does not end a resumed session
+    private boolean retired; // Expired or replaced; can no longer be resumed
+
+    public ClientSession(String username, KeyPair handshakeKeyPair, MemoryBudget budget) {
+        this.username = username;
+        this.handshakeKeyPair = handshakeKeyPair;
+        this.budget = budget;
+        RANDOM.nextBytes(token);
+    }
+
+    @Override
+    public String getUsername() {
+        return username;
+    }
+
+    public KeyPair getHandshakeKeyPair() {
+        return handshakeKeyPair;
+    }
+
+    public SecretKey getSessionKey() {
+        return sessionKey;
+    }
+
+    public void setSessionKey(SecretKey sessionKey) {
+        this.sessionKey = sessionKey;
+    }
+
+    // Constant time, so the token cannot be guessed byte by byte
+    public boolean matches(byte[] presented) {
+        return presented != null && MessageDigest.isEqual(token, presented);
+    }
+
+    /**
+     * Makes connection the session's connection: sends it a SessionTicket, then every buffered frame after
+     * lastSequence.
+     * @return The connection it replaces (null if none), or the new connection itself if the session has been
+     *         retired and cannot take it.
+     */
+    public ClientConnection attach(ClientConnection connection, long lastSequence, boolean resumed) {
+        lock.lock();
+        try {
+            if (retired) {
+                return connection;
+            }
+            ClientConnection previous = current;
+            current = connection;
+            lostFrames = 0;
+            connection.sendObject(new SessionTicket(token.clone(), receivedCount, resumed));
+            long oldest = oldestBuffered();
+            if (oldest > lastSequence + 1) {
+                System.err.println("Session of '" + username + "' could only replay from #" + oldest
+                        + "; " + (oldest - lastSequence - 1) + " frame(s) were no longer buffered.");
+            }
+            queuedThrough = Math.min(this.lastSequence, Math.max(lastSequence, oldest - 1));
+            pumpLocked();
+            queuedMore.signalAll();
+            return previous;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Leaves the session without a connection, if connection is still the attached one.
+     * @return The detach generation to pass to expireIfDetached, or -1 if connection was not attached.
+     */
+    public long detach(ClientConnection connection) {
+        lock.lock();
+        try {
+            if (current != connection) {
+                return -1;
+            }
+            current = null;
+            queuedMore.signalAll(); // Buffered from now on, nobody to wait for
+            return ++detachGeneration;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Retires the session if nothing reattached since that detach; true if it did
+    public boolean expireIfDetached(long generation) {
+        lock.lock();
+        try {
+            if (current != null || detachGeneration != generation || retired) {
+                return false;
+            }
+            retire();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Retires the session so a new login can take the name; false while a connection is attached
+    public boolean retireIfDetached() {
+        lock.lock();
+        try {
+            if (current != null) {
+                return false;
+            }
+            retire();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Counts messages read from connection, unless it has been replaced by a resumed connection (the client
+     * resends whatever the old one did not deliver).
+     * @return false if the messages must be dropped.
+     */
+    public boolean accept(ClientConnection connection, int messages) {
+        lock.lock();
+        try {
+            if (current != connection) {
+                return false;
+            }
+            receivedCount += messages;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void sendMessage(Message msg) {
+        sendObject(msg);
+    }
+
+    // Numbers, buffers and forwards a routed frame
+    @Override
+    public void sendObject(Object frame) {
+        lock.lock();
+        try {
+            while (POLICY == OverflowPolicy.BLOCK && current != null && !retired && queuedThrough <= lastSequence - BUFFER_MESSAGES) {
+                queuedMore.awaitUninterruptibly(); // The next frame would overwrite one the connection has not had yet
+            }
+            if (retired) {
+                return;
+            }
+            lastSequence++;
+            buffer(new SequencedFrame(lastSequence, frame));
+            if (current == null) {
+                return;
+            }
+            long evicted = lastSequence - BUFFER_MESSAGES; // Just overwritten
+            if (queuedThrough < evicted) {
+                // The connection is a whole buffer behind: the frame it was waiting for is gone
+                if (lostFrames == 0) {
+                    System.err.println("Client '" + username + "' is too slow: fell " + BUFFER_MESSAGES + " frames behind"
+                            + (POLICY == OverflowPolicy.DISCONNECT ? ". Disconnecting." : "; dropping the oldest."));
+                }
+                lostFrames += evicted - queuedThrough;
+                queuedThrough = evicted;
+                if (POLICY == OverflowPolicy.DISCONNECT) {
+                    current.disconnect();
+                    return;
+                }
+            }
+            pumpLocked();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Hands the connection the frames it has not had room for yet. Called by the connection once its queue has
+     * drained after offerSequenced refused a frame.
+     */
+    public void pump(ClientConnection connection) {
+        lock.lock();
+        try {
+            if (current == connection && !retired) {
+                pumpLocked();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Puts the frame in its ring slot, trading the weight of the frame it overwrites for its own; call with the lock held
+    private void buffer(SequencedFrame sequenced) {
+        int slot = (int) (sequenced.getSequence() % BUFFER_MESSAGES);
+        int weight = Server.weigh(sequenced);
+        budget.forceReserve(weight); // Never refused: the ring is bounded by frame count, and losing the frame is worse
+        budget.release(replayWeights[slot]);
+        replayBytes += weight - replayWeights[slot];
+        replay[slot] = sequenced;
+        replayWeights[slot] = weight;
+    }
+
+    // Ends the session for good and gives the replay buffer's bytes back; call with the lock held
+    private void retire() {
+        retired = true;
+        budget.release(replayBytes);
+        replayBytes = 0;
+        Arrays.fill(replay, null);
+        Arrays.fill(replayWeights, 0);
+        queuedMore.signalAll();
+    }
+
+    // Call with the lock held and a connection attached
+    private void pumpLocked() {
+        while (queuedThrough < lastSequence) {
+            SequencedFrame next = replay[(int) ((queuedThrough + 1) % BUFFER_MESSAGES)];
+            if (!current.offerSequenced(next, this)) {
+                return; // Full; the connection pumps again once it has drained
+            }
+            queuedThrough++;
+            queuedMore.signalAll();
+        }
+    }
+
+    // Sequence number of the oldest frame still in the replay buffer (lastSequence + 1 if there is none)
+    private long oldestBuffered() {
+        return Math.max(1, lastSequence - BUFFER_MESSAGES + 1);
+    }
+
+    @Override
+    public void disconnect() {
+        ClientConnection connection = current;
+        if (connection != null) {
+            connection.disconnect();
+        }
+    }
+
+    @Override
+    public long getBufferedBytes() {
+        ClientConnection connection = current;
+        return connection == null ? 0 : connection.getBufferedBytes();
+    }
+
+    // The replay buffer, plus whatever the connection's stream state keeps
+    @Override
+    public long getRetainedBytes() {
+        ClientConnection connection = current;
+        return replayBytes + (connection == null ? 0 : connection.getRetainedBytes());
+    }
+}
@@ -0,0 +1,55 @@
+package com.somnath.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Server-wide cap on bytes waiting in outbound queues (-Dchat.memory.maxBufferedBytes, default 256 MiB, 0 = no cap).
+ * Every OutboundQueue reserves a frame's bytes here before queueing it and releases them once the frame is
+ * taken by the writer or discarded. Session replay buffers reserve theirs too, so they leave less room for queues.
+ */
+public class MemoryBudget {
+
+    private final long limit;
+    private final AtomicLong used = new AtomicLong();
+
+    public MemoryBudget(long limit) {
+        this.limit = limit;
+    }
+
+    public static MemoryBudget fromSystemProperties() {
+        return new MemoryBudget(Long.getLong("chat.memory.maxBufferedBytes", 256L * 1024 * 1024));
+    }
+
+    /**
+     * @return false, reserving nothing, if the bytes would take the total over the limit.
+     */
+    public boolean tryReserve(long bytes) {
+        while (true) {
+            long current = used.get();
+            long next = current + bytes;
+            if (limit > 0 && next > limit) {
+                return false;
+            }
+            if (used.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+
+    // Reserves the bytes even past the limit
+    public void forceReserve(long bytes) {
+        used.addAndGet(bytes);
+    }
+
+    public void release(long bytes) {
+        used.addAndGet(-bytes);
+    }
+
+    public long getUsed() {
+        return used.get();
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+}
@@ -0,0 +1,182 @@
+package com.somnath.server;
+
+import com.somnath.common.AESUtil;
+import com.somnath.common.BitBuffer;
+import com.somnath.common.ChatEvents;
+import com.somnath.common.ContentCompressor;
+import com.somnath.common.ErrorCorrectingCode;
+import com.somnath.common.ErrorCorrectingCodes;
+import com.somnath.common.Message;
+import com.somnath.common.RSAUtil;
+import com.somnath.server.ServerMetrics.Stage;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.SecretKey;
+import java.security.PrivateKey;
+import java.util.zip.DataFormatException;
+
+/**
+ * Server-side processing pipeline for one received message:
+ * error correction, decoding back to the encrypted bytes, decryption and, for compressed content, inflating.
+ * On failure the Message's finalDecryptedContent is set to an error marker instead,
+ * so the caller can always route the result and clients see what happened.
+ *
+ * process() runs every step inline; ProcessingPipeline runs correct() and decrypt() as separate stages.
+ * correct() is the entry point for both: it discards any outcome the client put on the Message
+ * and rejects codewords that cannot be decoded, so a failed message never carries client-supplied content.
+ */
+public class MessageProcessor {
+
+    public static final String DECRYPTION_FAILED = "[DECRYPTION FAILED]";
+    public static final String DECRYPTION_ERROR = "[DECRYPTION ERROR]";
+
+    private static final ServerMetrics metrics = ServerMetrics.get();
+
+    /**
+     * @param sessionKey The connection's AES session key (null if the client never sent one).
+     * @param privateKey The server private key the client encrypted against (for RSA messages).
+     */
+    public static void process(Message receivedMessage, SecretKey sessionKey, PrivateKey privateKey) {
+        // The received message object contains sender, recipient, fullOriginalText,
+        // contentToEncrypt (parsed client-side), encryptedContentBase64, erroredHamming
+        try {
+            if (correct(receivedMessage)) {
+                decrypt(receivedMessage, sessionKey, privateKey);
+            }
+        } catch (RuntimeException e) {
+            // Never let one bad message take down the connection that is processing it inline
+            System.err.println("Processing failed unexpectedly for message from " + receivedMessage.getSender() + ": " + e.getMessage());
+            e.printStackTrace();
+            receivedMessage.setFinalDecryptedContent(DECRYPTION_ERROR);
+        }
+    }
+
+    /**
+     * Step A: Error Correct (packed bits, with the code the client chose).
+     * @return false if the message already failed and carries its error marker.
+     */
+    public static boolean correct(Message receivedMessage) {
+        // These are the server's to fill in; whatever the client sent is discarded
+        receivedMessage.setFinalDecryptedContent(null);
+        receivedMessage.setCorrectedHamming(null);
+        receivedMessage.setErrorDetected(false);
+        receivedMessage.setErrorCorrected(false);
+        receivedMessage.setErrorUncorrectable(false);
+
+        ErrorCorrectingCode ecc;
+        try {
+            ecc = ErrorCorrectingCodes.forName(receivedMessage.getEccScheme());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Message from " + receivedMessage.getSender() + " uses an unsupported code: " + e.getMessage());
+            receivedMessage.setFinalDecryptedContent(DECRYPTION_ERROR);
+            return false;
+        }
+        BitBuffer erroredBits = receivedMessage.getErroredHamming();
+        if (erroredBits == null) {
+            System.err.println("Message from " + receivedMessage.getSender() + " carries no codeword.");
+            receivedMessage.setFinalDecryptedContent(DECRYPTION_ERROR);
+            return false;
+        }
+        if (!holdsPayload(ecc, erroredBits, receivedMessage.getPayloadLength())) {
+            System.err.println("Message from " + receivedMessage.getSender() + " has payload length " + receivedMessage.getPayloadLength()
+                    + ", which does not fit its " + erroredBits.length() + "-bit " + ecc.getName() + " codeword.");
+            receivedMessage.setFinalDecryptedContent(DECRYPTION_ERROR);
+            return false;
+        }
+        ChatEvents.Correct event = new ChatEvents.Correct();
+        event.begin();
+        long start = System.nanoTime();
+        BitBuffer correctedBits = ecc.correctError(erroredBits, receivedMessage);
+        metrics.recordSince(Stage.CORRECT, start);
+        event.end();
+        if (event.shouldCommit()) {
+            event.sender = receivedMessage.getSender();
+            event.payloadSize = receivedMessage.getPayloadLength();
+            event.eccScheme = ecc.getName();
+            event.errorDetected = receivedMessage.isErrorDetected();
+            event.uncorrectable = receivedMessage.isErrorUncorrectable();
+            event.commit();
+        }
+        receivedMessage.setCorrectedHamming(correctedBits);
+        if (receivedMessage.isErrorCorrected()) {
+            metrics.errorCorrected();
+        }
+
+        if (receivedMessage.isErrorUncorrectable()) {
+            metrics.uncorrectable();
+            // SECDED detected a double-bit error; decrypting the garbage would only fail later
+            System.err.println("Uncorrectable bit errors in message from " + receivedMessage.getSender() + " (" + ecc.getName() + ").");
+            receivedMessage.setFinalDecryptedContent(DECRYPTION_FAILED);
+            return false;
+        }
+        return true;
+    }
+
+    // True if the codeword is whole blocks with room for payloadLength data bytes
+    private static boolean holdsPayload(ErrorCorrectingCode ecc, BitBuffer codeword, int payloadLength) {
+        if (payloadLength < 0 || codeword.length() % ecc.getBlockBits() != 0) {
+            return false;
+        }
+        long dataBits = (long) ecc.blockCount(codeword) * ecc.getDataBitsPerBlock();
+        return (long) payloadLength * 8 <= dataBits;
+    }
+
+    /**
+     * Steps B and C, for a message that passed correct().
+     * @param sessionKey The connection's AES session key (null if the client never sent one).
+     * @param privateKey The server private key the client encrypted against (for RSA messages).
+     */
+    public static void decrypt(Message receivedMessage, SecretKey sessionKey, PrivateKey privateKey) {
+        // Step B: Decode straight back to the Encrypted Bytes
+        ErrorCorrectingCode ecc = ErrorCorrectingCodes.forName(receivedMessage.getEccScheme()); // Checked by correct()
+        ChatEvents.Decrypt event = new ChatEvents.Decrypt();
+        event.begin();
+        long start = System.nanoTime();
+        try {
+            byte[] encryptedBytes = ecc.decode(receivedMessage.getCorrectedHamming(), receivedMessage.getPayloadLength());
+            metrics.recordSince(Stage.DECODE, start);
+            start = System.nanoTime();
+
+            // Step C: Decrypt (AES-GCM session key, or RSA for clients without one)
+            byte[] decryptedBytes;
+            if (receivedMessage.isSessionEncrypted()) {
+                if (sessionKey == null) {
+                    throw new IllegalStateException("No session key established for this connection");
+                }
+                decryptedBytes = AESUtil.decrypt(encryptedBytes, sessionKey);
+            } else {
+                decryptedBytes = RSAUtil.decrypt(encryptedBytes, privateKey);
+            }
+            if (receivedMessage.isCompressed()) {
+                decryptedBytes = ContentCompressor.decompress(decryptedBytes);
+            }
+            receivedMessage.setFinalDecryptedContent(RSAUtil.bytesToString(decryptedBytes));
+            metrics.recordSince(Stage.DECRYPT, start);
+            event.succeeded = true;
+        } catch (BadPaddingException e) {
+            metrics.decryptionFailed();
+            // This might happen if decryption fails (e.g., due to uncorrectable error or tampering);
+            // for AES-GCM this is the authentication tag check failing
+            System.err.println("Decryption failed (" + e.getClass().getSimpleName() + ") for message from " + receivedMessage.getSender() + ". Likely corrupt. " + e.getMessage());
+            receivedMessage.setFinalDecryptedContent(DECRYPTION_FAILED);
+        } catch (DataFormatException e) {
+            metrics.decryptionFailed();
+            // Decrypted fine but does not inflate: corrupt, or larger than chat.compress.maxInflatedBytes
+            System.err.println("Decompression failed for message from " + receivedMessage.getSender() + ": " + e.getMessage());
+            receivedMessage.setFinalDecryptedContent(DECRYPTION_FAILED);
+        } catch (Exception e) {
+            // Other decryption errors
+            metrics.decryptionFailed();
+            System.err.println("Decryption failed unexpectedly for message from " + receivedMessage.getSender() + ": " + e.getMessage());
+            e.printStackTrace();
+            receivedMessage.setFinalDecryptedContent(DECRYPTION_ERROR);
+        }
+        if (event.shouldCommit()) {
+            event.sender = receivedMessage.getSender();
+            event.payloadSize = receivedMessage.getPayloadLength();
+            event.cipher = receivedMessage.getCipher();
+            event.compressed = receivedMessage.isCompressed();
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.somnath.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Plain-text GET /metrics on the loopback interface (-Dchat.metrics.port, default 0 = off),
+ * served by the JDK's built-in HTTP server on one daemon thread.
+ */
+public class MetricsEndpoint {
+
+    private MetricsEndpoint() {
+    }
+
+    public static void startIfConfigured(ServerMetrics metrics) {
+        int port = Integer.getInteger("chat.metrics.port", 0);
+        if (port <= 0) {
+            return;
+        }
+        try {
+            HttpServer http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+            http.createContext("/metrics", exchange -> respond(exchange, metrics));
+            http.setExecutor(null); // The server's own dispatcher thread; a scrape is cheap
+            http.start();
+            System.out.println("Metrics available at http://localhost:" + port + "/metrics");
+        } catch (IOException e) {
+            System.err.println("Could not start metrics endpoint on port " + port + ": " + e.getMessage());
+        }
+    }
+
+    private static void respond(HttpExchange exchange, ServerMetrics metrics) throws IOException {
+        try (exchange) {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = metrics.toText().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+}
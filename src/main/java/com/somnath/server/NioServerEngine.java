@@ -0,0 +1,598 @@
+package com.somnath.server;
+
+import com.somnath.common.AESUtil;
+import com.somnath.common.BinaryFrameCodec;
+import com.somnath.common.EncodedFrame;
+import com.somnath.common.Message;
+import com.somnath.common.MessageBatch;
+import com.somnath.common.MessageChannels;
+import com.somnath.common.ResumeRequest;
+import com.somnath.common.SequencedFrame;
+import com.somnath.common.SessionTicket;
+import com.somnath.common.TraceRequest;
+
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.security.KeyPair;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Selector-based alternative to the thread-per-client ClientHandler (-Dchat.server.engine=nio).
+ *
+ * The calling thread accepts sockets and deals them out to a few I/O loops (chat.nio.ioThreads).
+ * Each loop owns a Selector and only moves bytes: it reads into a scratch buffer shared by the loop,
+ * cuts out complete BinaryFrameCodec frames and writes queued outbound frames, several per gathering write.
+ * Everything expensive (session key unwrap, ECC correction, decryption, routing) runs off the loops: frames are
+ * handled on a worker pool (chat.nio.workers), serialized per connection so a client's frames are still handled
+ * in order, and messages go on to the server's ProcessingPipeline (or are processed right there when inline).
+ *
+ * An idle connection holds no buffers: a per-connection buffer only exists while a frame is half read.
+ * Only the binary wire protocol is supported.
+ */
+public class NioServerEngine {
+
+    private static final int CORES = Runtime.getRuntime().availableProcessors();
+    private static final int IO_THREADS = Math.max(1, Integer.getInteger("chat.nio.ioThreads", Math.min(4, CORES)));
+    private static final int WORKER_THREADS = Math.max(1, Integer.getInteger("chat.nio.workers", CORES));
+    private static final int SCRATCH_BUFFER_SIZE = 64 * 1024;
+    private static final int MIN_PENDING_BUFFER_SIZE = 1024;
+    private static final int GATHER_LIMIT = 16; // Most queued frames handed to one gathering write
+    // Decoded frames a connection may have waiting for its worker before the loop stops reading from it
+    private static final int MAX_IN_FLIGHT_FRAMES = Math.max(1, Integer.getInteger("chat.nio.maxInFlightFrames", 64));
+    private static final int RESUME_READ_AT = MAX_IN_FLIGHT_FRAMES / 2;
+
+    private final Server server;
+    private final ServerMetrics metrics = ServerMetrics.get();
+    private final int port;
+    private final IoLoop[] loops;
+    private final ExecutorService workers;
+
+    public NioServerEngine(Server server, int port) {
+        this.server = server;
+        this.port = port;
+        this.loops = new IoLoop[IO_THREADS];
+        this.workers = Executors.newFixedThreadPool(WORKER_THREADS, daemonThreads("nio-worker-"));
+    }
+
+    public static boolean isConfigured() {
+        return "nio".equalsIgnoreCase(System.getProperty("chat.server.engine", "threads"));
+    }
+
+    /**
+     * Starts the I/O loops and accepts connections until the server socket fails.
+     */
+    public void run() throws IOException {
+        if (MessageChannels.isLegacy()) {
+            throw new IOException("The nio engine only speaks the binary wire protocol; drop -Dchat.wire=legacy or use -Dchat.server.engine=threads");
+        }
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new IoLoop(Selector.open());
+            Thread t = new Thread(loops[i], "nio-io-" + i);
+            t.setDaemon(true);
+            t.start();
+        }
+
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(port));
+            System.out.println("Server started on port " + port + " (nio engine, " + loops.length + " I/O threads, " + WORKER_THREADS + " workers)");
+
+            // Blocking accept here; the sockets themselves are non-blocking once handed to a loop
+            int next = 0;
+            while (true) {
+                SocketChannel socketChannel = serverChannel.accept();
+                System.out.println("New client connecting: " + socketChannel.getRemoteAddress());
+                loops[next].register(socketChannel);
+                next = (next + 1) % loops.length;
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    // The buffers a frame is written from. Shared encoded bytes are wrapped, not copied: a sequenced frame is
+    // its own small header followed by the EncodedFrame every recipient of a broadcast shares
+    private static ByteBuffer[] buffers(Object frame) throws IOException {
+        if (frame instanceof EncodedFrame) {
+            return new ByteBuffer[] {((EncodedFrame) frame).buffer()};
+        }
+        if (frame instanceof SequencedFrame) {
+            SequencedFrame sequenced = (SequencedFrame) frame;
+            EncodedFrame inner = sequenced.getFrame() instanceof EncodedFrame
+                    ? (EncodedFrame) sequenced.getFrame() : EncodedFrame.of(sequenced.getFrame());
+            return new ByteBuffer[] {
+                    ByteBuffer.wrap(BinaryFrameCodec.sequenceHeader(sequenced.getSequence(), inner.length())), inner.buffer()};
+        }
+        return new ByteBuffer[] {ByteBuffer.wrap(BinaryFrameCodec.encode(frame))};
+    }
+
+    private static int remaining(ByteBuffer[] buffers) {
+        int remaining = 0;
+        for (ByteBuffer buffer : buffers) {
+            remaining += buffer.remaining();
+        }
+        return remaining;
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + count.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    // One selector thread. Other threads talk to it only through execute() + wakeup()
+    private final class IoLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final ByteBuffer scratch = ByteBuffer.allocate(SCRATCH_BUFFER_SIZE);
+
+        IoLoop(Selector selector) {
+            this.selector = selector;
+        }
+
+        void register(SocketChannel socketChannel) {
+            execute(() -> {
+                NioConnection connection = new NioConnection(socketChannel, this);
+                try {
+                    socketChannel.configureBlocking(false);
+                    connection.key = socketChannel.register(selector, SelectionKey.OP_READ, connection);
+                    connection.start();
+                } catch (IOException e) {
+                    System.err.println("Could not register client " + socketChannel + ": " + e.getMessage());
+                    connection.close();
+                }
+            });
+        }
+
+        // Runs the task on this loop's thread
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    selector.select();
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+
+                    Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+                    while (selected.hasNext()) {
+                        SelectionKey key = selected.next();
+                        selected.remove();
+                        NioConnection connection = (NioConnection) key.attachment();
+                        try {
+                            if (key.isReadable()) {
+                                connection.onReadable(scratch);
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.onWritable();
+                            }
+                        } catch (IOException | RuntimeException e) {
+                            System.out.println("Client '" + connection.username + "' disconnected (" + e.getMessage() + ").");
+                            connection.close();
+                        }
+                    }
+                } catch (IOException e) {
+                    System.err.println("Selector error: " + e.getMessage());
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    // Per-connection state. Buffers are touched only by the owning loop; the handshake fields only by the serial worker
+    private final class NioConnection implements ClientConnection {
+        private final SocketChannel socketChannel;
+        private final IoLoop loop;
+        private final SerialExecutor worker = new SerialExecutor(workers);
+        private SelectionKey key;
+
+        private ByteBuffer pending; // Partial frame carried over between reads, in write mode
+        // Small until the worker has unwrapped a session key or accepted a resume
+        private volatile int maxFrameLength = BinaryFrameCodec.MAX_HANDSHAKE_FRAME_LENGTH;
+        private boolean helloDecoded; // Loop only
+        private boolean keyPending; // Loop only: a key frame went to the worker, decoding waits for keyHandled()
+        // Frames handed to the worker and not yet handled. At MAX_IN_FLIGHT_FRAMES the loop stops decoding and clears
+        // OP_READ, so a fast sender waits in its TCP window instead of in the worker queues
+        private final AtomicInteger inFlight = new AtomicInteger();
+        // Each queued frame is one buffer, or two for a sequenced frame: its own header and the shared inner frame.
+        // Queued together, so DROP_OLDEST never separates them. Drained by the loop
+        private final OutboundQueue<ByteBuffer[]> outbound = OutboundQueue.fromSystemProperties(NioServerEngine::remaining, server.getMemoryBudget());
+        // Frames being written with one gathering write, already off the queue so DROP_OLDEST cannot cut them short
+        private final ByteBuffer[] writing = new ByteBuffer[2 * GATHER_LIMIT];
+        private int writingFrom;
+        private int writingTo;
+        private final AtomicBoolean writeScheduled = new AtomicBoolean();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private volatile boolean closeWhenFlushed;
+        private volatile ClientSession refillFrom; // Set while the session has routed frames waiting for room
+
+        private volatile String username;
+        private ClientSession session; // Set by a login or a resume; routing sends to it, not to this connection
+        private SecretKey sessionKey;
+        private KeyPair handshakeKeyPair;
+
+        NioConnection(SocketChannel socketChannel, IoLoop loop) {
+            this.socketChannel = socketChannel;
+            this.loop = loop;
+        }
+
+        @Override
+        public String getUsername() {
+            return username;
+        }
+
+        // Handshake step 1, on a worker since the first key pair may still be generating
+        void start() {
+            worker.execute(() -> {
+                handshakeKeyPair = server.getServerKeyPair();
+                sendObject(handshakeKeyPair.getPublic());
+            });
+        }
+
+        void onReadable(ByteBuffer scratch) throws IOException {
+            ByteBuffer in = pending != null ? pending : scratch;
+            if (in == scratch) {
+                scratch.clear();
+            }
+            if (socketChannel.read(in) < 0) {
+                System.out.println("Client '" + username + "' disconnected.");
+                close();
+                return;
+            }
+            in.flip();
+            decodeFrames(in);
+        }
+
+        // Hands the complete frames in the buffer (read mode) to the worker and carries the rest over in pending
+        private void decodeFrames(ByteBuffer in) throws IOException {
+            int needed = BinaryFrameCodec.HEADER_LENGTH;
+            while (in.remaining() >= BinaryFrameCodec.HEADER_LENGTH) {
+                if (readHeld()) {
+                    key.interestOpsAnd(~SelectionKey.OP_READ); // Until resumeReading()
+                    needed = in.remaining(); // Keep the undecoded frames as they are
+                    break;
+                }
+                int start = in.position();
+                int length = in.getInt(start);
+                BinaryFrameCodec.checkFrameLength(length, maxFrameLength);
+                if (in.remaining() < BinaryFrameCodec.HEADER_LENGTH + length) {
+                    needed = BinaryFrameCodec.HEADER_LENGTH + length;
+                    break;
+                }
+                long decodeStart = System.nanoTime();
+                Object frame = BinaryFrameCodec.decode(in.array(), in.arrayOffset() + start + BinaryFrameCodec.HEADER_LENGTH, length);
+                metrics.recordSince(ServerMetrics.Stage.READ, decodeStart);
+                in.position(start + BinaryFrameCodec.HEADER_LENGTH + length);
+                // The client sends its first messages right behind the key; they are decoded once the worker
+                // has unwrapped it and raised the cap, never under a cap raised for a key nobody checked yet
+                if (frame instanceof String) {
+                    helloDecoded = true;
+                } else if (frame instanceof byte[] && helloDecoded) {
+                    keyPending = true;
+                }
+                inFlight.incrementAndGet();
+                worker.execute(() -> {
+                    try {
+                        handle(frame);
+                    } finally {
+                        if (inFlight.decrementAndGet() == RESUME_READ_AT) {
+                            loop.execute(this::resumeReading);
+                        }
+                    }
+                });
+            }
+
+            if (!in.hasRemaining()) {
+                pending = null;
+            } else if (in == pending && (pending.capacity() >= needed || in.remaining() < pending.capacity())) {
+                pending.compact(); // Still room for more of the frame
+            } else {
+                // Grow by doubling as bytes actually arrive, up to the frame, never straight to a length the peer only declared
+                ByteBuffer carry = ByteBuffer.allocate(Math.max(MIN_PENDING_BUFFER_SIZE, Math.min(needed, 2 * in.remaining())));
+                carry.put(in);
+                pending = carry;
+            }
+        }
+
+        private boolean readHeld() {
+            return keyPending || inFlight.get() >= MAX_IN_FLIGHT_FRAMES;
+        }
+
+        // Loop only
+        private void keyHandled() {
+            keyPending = false;
+            resumeReading();
+        }
+
+        // Loop only: reads again once the worker has caught up, starting with the frames already carried over
+        private void resumeReading() {
+            if (readHeld() || closed.get() || key == null || !key.isValid()) {
+                return;
+            }
+            key.interestOpsOr(SelectionKey.OP_READ);
+            if (pending == null) {
+                return;
+            }
+            try {
+                pending.flip();
+                decodeFrames(pending);
+            } catch (IOException | RuntimeException e) {
+                System.out.println("Client '" + username + "' disconnected (" + e.getMessage() + ").");
+                close();
+            }
+        }
+
+        void onWritable() throws IOException {
+            while (writingFrom < writingTo || pollWriteBatch()) {
+                long start = System.nanoTime();
+                socketChannel.write(writing, writingFrom, writingTo - writingFrom);
+                metrics.recordSince(ServerMetrics.Stage.WRITE, start);
+                while (writingFrom < writingTo && !writing[writingFrom].hasRemaining()) {
+                    writing[writingFrom++] = null;
+                }
+                if (writingFrom < writingTo) {
+                    return; // Socket buffer full, OP_WRITE stays on
+                }
+            }
+            key.interestOpsAnd(~SelectionKey.OP_WRITE);
+            writeScheduled.set(false);
+            ClientSession owner = refillFrom;
+            if (owner != null) {
+                refillFrom = null;
+                worker.execute(() -> owner.pump(this)); // Routed frames that did not fit; the pump may wait for the session lock
+            }
+            // A frame queued between the last poll() and the reset above would otherwise wait for the next send
+            if (!outbound.isEmpty() && writeScheduled.compareAndSet(false, true)) {
+                key.interestOpsOr(SelectionKey.OP_WRITE);
+            } else if (closeWhenFlushed) {
+                close();
+            }
+        }
+
+        // Runs on the worker, one frame at a time per connection
+        private void handle(Object frame) {
+            if (closeWhenFlushed || closed.get()) {
+                return;
+            }
+            try {
+                if (session == null) {
+                    handleHello(frame);
+                } else if (frame instanceof byte[]) {
+                    // Session key handshake: AES key wrapped with our public key
+                    try {
+                        sessionKey = AESUtil.unwrapKey((byte[]) frame, handshakeKeyPair.getPrivate());
+                        session.setSessionKey(sessionKey); // Kept for a resume
+                        maxFrameLength = BinaryFrameCodec.MAX_FRAME_LENGTH;
+                        System.out.println("Session key established for '" + username + "'.");
+                    } catch (Exception e) {
+                        System.err.println("Could not unwrap session key from '" + username + "': " + e.getMessage());
+                    } finally {
+                        loop.execute(this::keyHandled); // Frames behind the key are decoded with whatever cap it earned
+                    }
+                } else if (frame instanceof Message) {
+                    if (session.accept(this, 1)) {
+                        server.processAndRoute((Message) frame, session, sessionKey, handshakeKeyPair.getPrivate());
+                    }
+                } else if (frame instanceof MessageBatch) {
+                    List<Message> messages = ((MessageBatch) frame).getMessages();
+                    if (session.accept(this, messages.size())) {
+                        server.processAndRoute(messages, session, sessionKey, handshakeKeyPair.getPrivate());
+                    }
+                } else if (frame instanceof TraceRequest) {
+                    sendObject(server.getTrace(((TraceRequest) frame).getTraceId(), username));
+                } else {
+                    System.err.println("Received unexpected object type from '" + username + "': " + frame.getClass().getName());
+                }
+            } catch (RuntimeException e) {
+                System.err.println("Error handling frame from '" + username + "': " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+
+        private void handleHello(Object frame) {
+            if (frame instanceof ResumeRequest) {
+                ClientSession resumed = server.resumeSession((ResumeRequest) frame, this);
+                if (resumed == null) {
+                    sendObject(SessionTicket.refused()); // The client logs in again on this connection
+                    return;
+                }
+                // Same user, same session key: no new key exchange
+                sessionKey = resumed.getSessionKey();
+                handshakeKeyPair = resumed.getHandshakeKeyPair();
+                session = resumed;
+                maxFrameLength = BinaryFrameCodec.MAX_FRAME_LENGTH; // The client waits for its ticket before sending more
+                username = resumed.getUsername();
+                return;
+            }
+            if (!(frame instanceof String) || ((String) frame).trim().isEmpty()) {
+                System.err.println("First frame from client was not a username. Disconnecting: " + socketChannel);
+                closeWhenFlushed();
+                return;
+            }
+            String name = ((String) frame).trim();
+            System.out.println("Received username '" + name + "' from client: " + socketChannel);
+            username = name; // Set before the connection becomes visible to routing threads
+            session = server.openSession(name, this, handshakeKeyPair);
+            if (session == null) {
+                System.err.println("Username '" + name + "' already in use. Denying connection: " + socketChannel);
+                sendMessage(server.createErrorMessage("Username '" + name + "' is already in use. Please try a different name.", "SERVER"));
+                closeWhenFlushed();
+            }
+        }
+
+        @Override
+        public void sendMessage(Message msg) {
+            sendObject(msg);
+        }
+
+        // Thread-safe: encodes on the caller's thread (unless the frame is already encoded), the loop does the socket write
+        @Override
+        public void sendObject(Object msg) {
+            if (closed.get()) {
+                return;
+            }
+            try {
+                if (!outbound.offer(buffers(msg))) {
+                    if (!closed.get() && !closeWhenFlushed) {
+                        System.err.println("Client '" + username + "' is too slow (" + outbound + "). Disconnecting.");
+                        close();
+                    }
+                    return;
+                }
+            } catch (IOException e) {
+                System.err.println("Error sending message to client '" + username + "': " + e.getMessage());
+                return;
+            }
+            if (writeScheduled.compareAndSet(false, true)) {
+                loop.execute(this::enableWrite);
+            }
+        }
+
+        @Override
+        public boolean offerSequenced(SequencedFrame frame, ClientSession owner) {
+            if (closed.get()) {
+                return false;
+            }
+            try {
+                refillFrom = owner; // Before the offer, so a loop that drains the queue meanwhile still pumps
+                if (!outbound.offerIfRoom(buffers(frame))) {
+                    return false;
+                }
+                refillFrom = null;
+            } catch (IOException e) {
+                System.err.println("Error sending message to client '" + username + "': " + e.getMessage());
+                return true; // Skipped, as sendObject would
+            }
+            if (writeScheduled.compareAndSet(false, true)) {
+                loop.execute(this::enableWrite);
+            }
+            return true;
+        }
+
+        // Takes up to GATHER_LIMIT queued frames for the next write; false if the queue is empty
+        private boolean pollWriteBatch() {
+            writingFrom = 0;
+            writingTo = 0;
+            ByteBuffer[] next;
+            for (int frames = 0; frames < GATHER_LIMIT && (next = outbound.poll()) != null; frames++) {
+                for (ByteBuffer buffer : next) {
+                    writing[writingTo++] = buffer;
+                }
+            }
+            return writingTo > 0;
+        }
+
+        @Override
+        public long getBufferedBytes() {
+            return outbound.getBytes();
+        }
+
+        // The binary wire keeps nothing between frames
+        @Override
+        public long getRetainedBytes() {
+            return 0;
+        }
+
+        @Override
+        public void disconnect() {
+            close();
+        }
+
+        private void enableWrite() {
+            if (key != null && key.isValid()) {
+                key.interestOpsOr(SelectionKey.OP_WRITE); // Leaves OP_READ as the read side set it
+            }
+        }
+
+        private void closeWhenFlushed() {
+            closeWhenFlushed = true;
+            loop.execute(() -> {
+                if (writingFrom == writingTo && outbound.isEmpty()) {
+                    close();
+                } else {
+                    enableWrite();
+                }
+            });
+        }
+
+        void close() {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            if (key != null) {
+                key.cancel();
+            }
+            try {
+                socketChannel.close();
+            } catch (IOException e) {
+                System.err.println("Error closing client channel for '" + username + "': " + e.getMessage());
+            }
+            outbound.discard(); // Return the unsent bytes to the server budget
+            pending = null;
+            if (outbound.getDroppedCount() > 0) {
+                System.out.println("Outbound queue of '" + username + "' dropped frames: " + outbound);
+            }
+            // Unregister on the worker so it cannot overtake a HELLO that is still being handled
+            worker.execute(() -> {
+                if (session != null) {
+                    server.removeClient(session, this);
+                }
+            });
+        }
+    }
+
+    // Runs tasks one at a time, in submission order, on a shared pool
+    private static final class SerialExecutor implements Executor {
+        private final Queue<Runnable> tasks = new ArrayDeque<>(4);
+        private final Executor pool;
+        private Runnable active;
+
+        SerialExecutor(Executor pool) {
+            this.pool = pool;
+        }
+
+        @Override
+        public synchronized void execute(Runnable task) {
+            tasks.add(() -> {
+                try {
+                    task.run();
+                } finally {
+                    scheduleNext();
+                }
+            });
+            if (active == null) {
+                scheduleNext();
+            }
+        }
+
+        private synchronized void scheduleNext() {
+            if ((active = tasks.poll()) != null) {
+                pool.execute(active);
+            }
+        }
+    }
+}
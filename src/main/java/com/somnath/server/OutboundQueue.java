@@ -0,0 +1,296 @@
+package com.somnath.server;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToIntFunction;
+
+/**
+ * Bounded queue of frames waiting to be written to one client (-Dchat.outbound.capacity, default 1024).
+ * Routing threads offer() frames, and the connection's single writer drains them, so a slow client only
+ * fills its own queue instead of holding up the sender and the rest of a broadcast.
+ * When full, the OverflowPolicy decides what happens.
+ *
+ * Frames are also weighed in bytes: a queue is full once it holds -Dchat.outbound.maxBytes (default 4 MiB)
+ * or once the server-wide MemoryBudget runs out. A single frame larger than the cap still fits an empty queue.
+ *
+ * Uses a ReentrantLock rather than synchronized so waiting writers and BLOCK senders do not pin virtual threads.
+ */
+public class OutboundQueue<T> {
+
+    private static final long BLOCK_RECHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(10); // Budget freed by other queues signals nobody here
+
+    private final ArrayDeque<T> items = new ArrayDeque<>();
+    private final int capacity;
+    private final long maxBytes;
+    private final ToIntFunction<? super T> weigher;
+    private final MemoryBudget budget;
+    private final OverflowPolicy policy;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private boolean closed;
+
+    // Counters, guarded by lock
+    private long bytes; // Weight of the queued frames
+    private long enqueuedCount;
+    private long droppedCount;
+    private int highWaterMark;
+
+    public OutboundQueue(int capacity, long maxBytes, ToIntFunction<? super T> weigher, MemoryBudget budget, OverflowPolicy policy) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Outbound queue capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.maxBytes = maxBytes > 0 ? maxBytes : Long.MAX_VALUE;
+        this.weigher = weigher;
+        this.budget = budget;
+        this.policy = policy;
+    }
+
+    public static <T> OutboundQueue<T> fromSystemProperties(ToIntFunction<? super T> weigher, MemoryBudget budget) {
+        return new OutboundQueue<>(Integer.getInteger("chat.outbound.capacity", 1024),
+                Long.getLong("chat.outbound.maxBytes", 4L * 1024 * 1024), weigher, budget, OverflowPolicy.configured());
+    }
+
+    /**
+     * Queues a frame for the writer, applying the overflow policy if the queue is full.
+     * @return false if the frame was not queued because the queue is closed, or was just closed by the
+     *         DISCONNECT policy (or DISCONNECT found the server budget used up); the caller should then
+     *         disconnect the client.
+     */
+    public boolean offer(T item) {
+        int weight = weigher.applyAsInt(item);
+        boolean interrupted = false;
+        lock.lock();
+        try {
+            while (!closed && !reserve(weight)) {
+                if (items.isEmpty() && policy != OverflowPolicy.BLOCK) {
+                    // Only the server-wide budget is exhausted and this queue has nothing of its own to give up
+                    droppedCount++;
+                    return policy != OverflowPolicy.DISCONNECT;
+                }
+                switch (policy) {
+                    case DROP_OLDEST:
+                        release(items.poll());
+                        droppedCount++;
+                        break;
+                    case DISCONNECT:
+                        droppedCount += items.size() + 1;
+                        clear(); // Nothing more goes out, the writer stops right away
+                        close();
+                        return false;
+                    case BLOCK:
+                        try {
+                            notFull.awaitNanos(BLOCK_RECHECK_NANOS);
+                        } catch (InterruptedException e) {
+                            interrupted = true; // Keep waiting, like awaitUninterruptibly()
+                        }
+                        break;
+                }
+            }
+            if (closed) {
+                return false;
+            }
+            items.add(item);
+            enqueuedCount++;
+            highWaterMark = Math.max(highWaterMark, items.size());
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Queues a frame only if there is room, whatever the policy: never drops queued frames and never waits.
+     * For frames the caller keeps elsewhere and can offer again once the writer has drained the queue.
+     * An empty queue always takes the frame, even past the server budget, so there is a writer to wait for.
+     * @return false if the frame was not queued.
+     */
+    public boolean offerIfRoom(T item) {
+        int weight = weigher.applyAsInt(item);
+        lock.lock();
+        try {
+            if (closed) {
+                return false;
+            }
+            if (items.isEmpty()) {
+                budget.forceReserve(weight);
+                bytes += weight;
+            } else if (!reserve(weight)) {
+                return false;
+            }
+            items.add(item);
+            enqueuedCount++;
+            highWaterMark = Math.max(highWaterMark, items.size());
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Takes room for a frame, from this queue's limits and the server budget; call with lock held
+    private boolean reserve(int weight) {
+        if (items.size() >= capacity || (!items.isEmpty() && bytes + weight > maxBytes)) {
+            return false;
+        }
+        if (!budget.tryReserve(weight)) {
+            return false;
+        }
+        bytes += weight;
+        return true;
+    }
+
+    // Gives back a removed frame's room; call with lock held
+    private T release(T item) {
+        if (item != null) {
+            int weight = weigher.applyAsInt(item);
+            bytes -= weight;
+            budget.release(weight);
+            notFull.signal();
+        }
+        return item;
+    }
+
+    private void clear() {
+        while (!items.isEmpty()) {
+            release(items.poll());
+        }
+    }
+
+    /**
+     * Waits for the next frame. After close() the remaining frames are still handed out.
+     * @return The next frame, or null once the queue is closed and empty.
+     */
+    public T take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (items.isEmpty() && !closed) {
+                notEmpty.await();
+            }
+            return release(items.poll());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Non-blocking variant for writers driven by a selector
+    public T poll() {
+        lock.lock();
+        try {
+            return release(items.poll());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Stops accepting frames and wakes up the writer and any blocked senders.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Closes the queue and drops whatever the writer did not get to, returning its bytes to the server budget.
+     * For connections that are going away; the dropped frames are not counted as overflow drops.
+     */
+    public void discard() {
+        lock.lock();
+        try {
+            clear();
+            close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isClosed() {
+        lock.lock();
+        try {
+            return closed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Current queue depth
+    public int size() {
+        lock.lock();
+        try {
+            return items.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Bytes of the queued frames, as weighed when they were offered
+    public long getBytes() {
+        lock.lock();
+        try {
+            return bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getEnqueuedCount() {
+        lock.lock();
+        try {
+            return enqueuedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Frames discarded by DROP_OLDEST or for lack of server budget, or abandoned by DISCONNECT
+    public long getDroppedCount() {
+        lock.lock();
+        try {
+            return droppedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Deepest the queue has been
+    public int getHighWaterMark() {
+        lock.lock();
+        try {
+            return highWaterMark;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public OverflowPolicy getPolicy() {
+        return policy;
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            return "depth=" + items.size() + ", bytes=" + bytes + ", highWater=" + highWaterMark + ", enqueued=" + enqueuedCount + ", dropped=" + droppedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
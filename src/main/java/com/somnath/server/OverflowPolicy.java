@@ -0,0 +1,17 @@
+package com.somnath.server;
+
+/**
+ * What a client's outbound queue does when a frame arrives and the queue is full (-Dchat.outbound.policy).
+ */
+public enum OverflowPolicy {
+    /** Discard the oldest queued frame to make room. The slow client misses messages, nobody waits. */
+    DROP_OLDEST,
+    /** Disconnect the slow client. */
+    DISCONNECT,
+    /** Make the routing thread wait for room. Lossless, but a stalled client stalls its senders. */
+    BLOCK;
+
+    public static OverflowPolicy configured() {
+        return valueOf(System.getProperty("chat.outbound.policy", DROP_OLDEST.name()).trim().toUpperCase());
+    }
+}
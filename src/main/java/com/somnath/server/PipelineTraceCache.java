@@ -0,0 +1,82 @@
+package com.somnath.server;
+
+import com.somnath.common.Message;
+import com.somnath.common.PipelineTrace;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded cache of pipeline traces for lean delivery (-Dchat.trace.cacheSize, default 1024).
+ * Least recently used traces are evicted first; a client asking for an evicted trace gets an
+ * "unavailable" reply. A trace is only handed to the message's sender, its private recipient,
+ * or anyone for a group message.
+ */
+public class PipelineTraceCache {
+
+    private static class Entry {
+        final PipelineTrace trace;
+        final String sender;
+        final String recipient; // null for group messages
+
+        Entry(PipelineTrace trace, String sender, String recipient) {
+            this.trace = trace;
+            this.sender = sender;
+            this.recipient = recipient;
+        }
+    }
+
+    private final AtomicLong nextTraceId = new AtomicLong(1);
+    private final Map<Long, Entry> traces;
+    // Every routed message goes through here; a virtual thread waiting on a contended monitor would pin its carrier
+    private final ReentrantLock lock = new ReentrantLock();
+
+    public PipelineTraceCache(int capacity) {
+        this.traces = new LinkedHashMap<>(16, 0.75f, true) { // Access order = LRU
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    public static PipelineTraceCache fromSystemProperties() {
+        return new PipelineTraceCache(Integer.getInteger("chat.trace.cacheSize", 1024));
+    }
+
+    /**
+     * Stores the stages of a processed message.
+     * @return The trace id to put on the lean copy.
+     */
+    public long store(Message msg) {
+        long traceId = nextTraceId.getAndIncrement();
+        Entry entry = new Entry(PipelineTrace.of(traceId, msg), msg.getSender(), msg.isPrivateMessage() ? msg.getRecipient() : null);
+        lock.lock();
+        try {
+            traces.put(traceId, entry);
+        } finally {
+            lock.unlock();
+        }
+        return traceId;
+    }
+
+    /**
+     * Looks up a trace for a requester; never returns null.
+     */
+    public PipelineTrace lookup(long traceId, String requester) {
+        Entry entry;
+        lock.lock();
+        try {
+            entry = traces.get(traceId); // get() reorders the LRU list, so it needs the lock too
+        } finally {
+            lock.unlock();
+        }
+        if (entry == null) {
+            return PipelineTrace.unavailable(traceId);
+        }
+        boolean allowed = entry.recipient == null || entry.recipient.equals(requester) || entry.sender.equals(requester);
+        return allowed ? entry.trace : PipelineTrace.unavailable(traceId);
+    }
+}
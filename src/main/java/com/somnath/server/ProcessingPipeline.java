@@ -0,0 +1,186 @@
+package com.somnath.server;
+
+import com.somnath.common.Message;
+
+import javax.crypto.SecretKey;
+import java.security.PrivateKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Staged server-side processing (-Dchat.pipeline=staged, the default): received messages go through
+ * correct -> decrypt -> route stages, each with its own worker threads, so reader threads only read
+ * frames and hand them off while ECC correction and decryption use every core.
+ *
+ * Each stage has one bounded queue per worker (-Dchat.pipeline.queueCapacity, default 256), and all of a
+ * sender's messages use the same lane in every stage, which keeps them in order. A full queue makes the
+ * previous stage (or the reader) wait, so backlog turns into TCP backpressure instead of heap growth.
+ * A client's MessageBatch travels as one job, so it costs one hand-off per stage instead of one per message.
+ *
+ * Worker counts: -Dchat.pipeline.correctThreads and -Dchat.pipeline.decryptThreads (default: cores),
+ * -Dchat.pipeline.routeThreads (default 2).
+ */
+public class ProcessingPipeline {
+
+    public static final String STAGED = "staged";
+    public static final String INLINE = "inline";
+
+    private static final int CORES = Runtime.getRuntime().availableProcessors();
+
+    private final Stage route;
+    private final Stage decrypt;
+    private final Stage correct;
+
+    public ProcessingPipeline(Server server, int correctThreads, int decryptThreads, int routeThreads, int queueCapacity) {
+        // Built back to front so each stage knows the next one
+        this.route = new Stage("route", routeThreads, queueCapacity, null,
+                (job, i) -> server.routeMessage(job.messages.get(i), job.sender));
+        this.decrypt = new Stage("decrypt", decryptThreads, queueCapacity, route, (job, i) -> {
+            if (job.corrected[i]) {
+                MessageProcessor.decrypt(job.messages.get(i), job.sessionKey, job.privateKey);
+            }
+        });
+        this.correct = new Stage("correct", correctThreads, queueCapacity, decrypt,
+                (job, i) -> job.corrected[i] = MessageProcessor.correct(job.messages.get(i)));
+    }
+
+    public static boolean isConfigured() {
+        return !INLINE.equalsIgnoreCase(System.getProperty("chat.pipeline", STAGED));
+    }
+
+    public static ProcessingPipeline fromSystemProperties(Server server) {
+        return new ProcessingPipeline(server,
+                Integer.getInteger("chat.pipeline.correctThreads", CORES),
+                Integer.getInteger("chat.pipeline.decryptThreads", CORES),
+                Integer.getInteger("chat.pipeline.routeThreads", 2),
+                Integer.getInteger("chat.pipeline.queueCapacity", 256));
+    }
+
+    /**
+     * Hands received messages (one, or a client's batch) to the first stage; waits while that stage's queue
+     * for this sender is full. Failed messages still go all the way through, so clients see the failure.
+     */
+    public void submit(List<Message> messages, ClientConnection sender, SecretKey sessionKey, PrivateKey privateKey) throws InterruptedException {
+        correct.put(new Job(messages, sender, sessionKey, privateKey));
+    }
+
+    public List<Stage> getStages() {
+        return List.of(correct, decrypt, route);
+    }
+
+    @Override
+    public String toString() {
+        return correct + "; " + decrypt + "; " + route;
+    }
+
+    // Messages read together, on their way through the stages
+    private static final class Job {
+        final List<Message> messages;
+        final ClientConnection sender;
+        final SecretKey sessionKey;
+        final PrivateKey privateKey;
+        final boolean[] corrected; // Set by the correct stage, read by decrypt (the queue hand-off publishes it)
+
+        Job(List<Message> messages, ClientConnection sender, SecretKey sessionKey, PrivateKey privateKey) {
+            this.messages = messages;
+            this.corrected = new boolean[messages.size()];
+            this.sender = sender;
+            this.sessionKey = sessionKey;
+            this.privateKey = privateKey;
+        }
+
+        // Same lane in every stage of the same size, so a sender's messages never overtake each other
+        int lane(int lanes) {
+            return Math.floorMod(System.identityHashCode(sender), lanes);
+        }
+    }
+
+    /**
+     * One pipeline stage: a worker thread per lane, each draining its own bounded queue.
+     */
+    public static final class Stage {
+        private final String name;
+        private final List<BlockingQueue<Job>> lanes = new ArrayList<>();
+        private final Stage next;
+        private final ObjIntConsumer<Job> work; // Processes message i of a job
+        private final LongAdder processed = new LongAdder();
+        private final LongAdder busyNanos = new LongAdder();
+
+        private Stage(String name, int threads, int queueCapacity, Stage next, ObjIntConsumer<Job> work) {
+            this.name = name;
+            this.next = next;
+            this.work = work;
+            for (int i = 0; i < Math.max(1, threads); i++) {
+                BlockingQueue<Job> lane = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+                lanes.add(lane);
+                Thread t = new Thread(() -> drain(lane), "pipeline-" + name + "-" + i);
+                t.setDaemon(true);
+                t.start();
+            }
+        }
+
+        private void put(Job job) throws InterruptedException {
+            lanes.get(job.lane(lanes.size())).put(job);
+        }
+
+        private void drain(BlockingQueue<Job> lane) {
+            try {
+                while (true) {
+                    Job job = lane.take();
+                    long start = System.nanoTime();
+                    for (int i = 0; i < job.messages.size(); i++) {
+                        try {
+                            work.accept(job, i);
+                        } catch (RuntimeException e) {
+                            Message message = job.messages.get(i);
+                            System.err.println("Error in " + name + " stage for message from " + message.getSender() + ": " + e.getMessage());
+                            e.printStackTrace();
+                            message.setFinalDecryptedContent(MessageProcessor.DECRYPTION_ERROR); // Never route a half-processed message as is
+                            job.corrected[i] = false;
+                        }
+                    }
+                    busyNanos.add(System.nanoTime() - start);
+                    processed.add(job.messages.size());
+                    if (next != null) {
+                        next.put(job);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        // Jobs (single messages or batches) waiting in this stage's queues
+        public int getQueueDepth() {
+            int depth = 0;
+            for (BlockingQueue<Job> lane : lanes) {
+                depth += lane.size();
+            }
+            return depth;
+        }
+
+        public long getProcessedCount() {
+            return processed.sum();
+        }
+
+        // Mean time a worker spends on one message, in microseconds
+        public double getMeanServiceMicros() {
+            long count = processed.sum();
+            return count == 0 ? 0 : busyNanos.sum() / 1000.0 / count;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: threads=%d, depth=%d, processed=%d, service=%.1fus",
+                    name, lanes.size(), getQueueDepth(), getProcessedCount(), getMeanServiceMicros());
+        }
+    }
+}
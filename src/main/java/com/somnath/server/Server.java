@@ -1,49 +1,89 @@
 package com.somnath.server;
 
 
+import com.somnath.common.AESUtil;
+import com.somnath.common.BinaryFrameCodec;
+import com.somnath.common.BitBuffer;
+import com.somnath.common.ChatEvents;
+import com.somnath.common.ChatThreads;
+import com.somnath.common.EncodedFrame;
 import com.somnath.common.Message;
-import com.somnath.common.RSAUtil;
-import com.somnath.common.HammingUtil;
-
-import javax.crypto.BadPaddingException;
+import com.somnath.common.MessageChannel;
+import com.somnath.common.MessageBatch;
+import com.somnath.common.MessageChannels;
+import com.somnath.common.PipelineTrace;
+import com.somnath.common.ResumeRequest;
+import com.somnath.common.SequencedFrame;
+import com.somnath.common.SessionTicket;
+import com.somnath.common.TraceRequest;
+
+import javax.crypto.SecretKey;
 import java.io.*;
 import java.net.*;
 import java.security.*;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 public class Server {
 
     private static final int PORT = 12345;
+    private static final long WRITER_DRAIN_MILLIS = 2000; // How long a closing handler lets its writer finish
+    private static final int LEGACY_FRAME_OVERHEAD = 128; // Serialization headers of a legacy frame, roughly
+    private static final int MEMORY_REPORT_SIZE = 10;
+    // How long a disconnected user's session (name, session key, missed messages) waits to be resumed
+    private static final long RESUME_GRACE_SECONDS = Long.getLong("chat.resume.graceSeconds", 60);
     private ServerSocket serverSocket;
-    // Use a synchronized map to manage clients by username
-    private Map<String, ClientHandler> clientHandlers = Collections.synchronizedMap(new HashMap<>());
-    private KeyPair serverKeyPair;
+    // ClientSessions by username, connected or waiting to be resumed; lock-free lookups and broadcast snapshots
+    private final ClientRegistry clientHandlers = new ClientRegistry();
+    private final ScheduledExecutorService sessionExpiry = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "session-expiry");
+        t.setDaemon(true);
+        return t;
+    });
+    // Shared by every outbound queue (-Dchat.memory.maxBufferedBytes)
+    private final MemoryBudget memoryBudget = MemoryBudget.fromSystemProperties();
+    private final ServerMetrics metrics = ServerMetrics.get();
+    // Correct, decrypt and route stages off the reader threads (-Dchat.pipeline, null when inline)
+    private final ProcessingPipeline pipeline = ProcessingPipeline.isConfigured() ? ProcessingPipeline.fromSystemProperties(this) : null;
+    private final ServerKeyStore keyStore = ServerKeyStore.fromSystemProperties();
+    // Lean delivery (-Dchat.delivery=lean, the default): recipients get the final content plus a trace id,
+    // and fetch the pipeline stages from this cache only when they open the message details
+    private final boolean leanDelivery = !"full".equalsIgnoreCase(System.getProperty("chat.delivery", "lean"));
+    private final PipelineTraceCache traceCache = PipelineTraceCache.fromSystemProperties();
 
     public Server() {
         try {
-            // 1. Generate Server's RSA Key Pair
-            serverKeyPair = RSAUtil.generateKeyPair();
-            System.out.println("Server RSA KeyPair generated.");
+            // 1. Load Server's RSA Key Pair (generated in the background on first run)
+            keyStore.start();
+            scheduleKeyRotation();
+            scheduleMemoryReport();
+            schedulePipelineReport();
+            startMetrics();
+
+            // Selector-based engine (-Dchat.server.engine=nio): a few I/O threads multiplex every connection
+            if (NioServerEngine.isConfigured()) {
+                new NioServerEngine(this, PORT).run();
+                return;
+            }
 
-            // 2. Start Server Socket
+            // 2. Start Server Socket right away; handlers wait for the key if it is still being generated
             serverSocket = new ServerSocket(PORT);
-            System.out.println("Server started on port " + PORT);
+            System.out.println("Server started on port " + PORT + " (" + ChatThreads.configuredMode() + " handler threads)");
 
             // 3. Accept Connections
             while (true) {
                 Socket clientSocket = serverSocket.accept();
                 System.out.println("New client connecting: " + clientSocket);
 
-                // Create a handler for the client
+                // Create a handler for the client (a virtual thread by default, see -Dchat.threads)
                 ClientHandler handler = new ClientHandler(clientSocket, this);
-                handler.start();
+                ChatThreads.start("client-handler-" + clientSocket.getPort(), handler);
             }
 
-        } catch (NoSuchAlgorithmException e) {
-            System.err.println("RSA Algorithm not available: " + e.getMessage());
-            e.printStackTrace();
         } catch (IOException e) {
             System.err.println("Error starting server or accepting connection: " + e.getMessage());
             e.printStackTrace();
@@ -59,21 +99,72 @@ public class Server {
         }
     }
 
-    // Method to add a client handler to the map
-    public void addClient(String username, ClientHandler handler) {
-        clientHandlers.put(username, handler);
+    /**
+     * Starts a session for a freshly logged-in connection and sends it the SessionTicket. The name is reserved
+     * atomically; a session nobody is connected to (waiting to be resumed) gives way to the new login.
+     * @return null if a connected client already uses the name.
+     */
+    public ClientSession openSession(String username, ClientConnection handler, KeyPair handshakeKeyPair) {
+        ClientSession session = new ClientSession(username, handshakeKeyPair, memoryBudget);
+        while (!clientHandlers.reserve(username, session)) {
+            ClientConnection existing = clientHandlers.get(username);
+            if (existing instanceof ClientSession && !((ClientSession) existing).retireIfDetached()) {
+                return null;
+            }
+            if (existing != null && clientHandlers.replace(username, existing, session)) {
+                System.out.println("Session of '" + username + "' replaced by a new login.");
+                break;
+            }
+        }
+        session.attach(handler, 0, false);
         System.out.println("Client '" + username + "' connected. Active clients: " + clientHandlers.size());
         // Optional: Notify all clients that a new user joined
         broadcastStatusMessage("User '" + username + "' joined.");
+        return session;
+    }
+
+    /**
+     * Attaches a reconnecting client to its session: sends the SessionTicket and replays the frames it missed.
+     * A connection the session still had (the server may not have noticed it died) is closed.
+     * @return null if there is no such session or the token is wrong; the caller then expects a fresh login.
+     */
+    public ClientSession resumeSession(ResumeRequest request, ClientConnection handler) {
+        ClientConnection registered = clientHandlers.get(request.getUsername());
+        if (!(registered instanceof ClientSession) || !((ClientSession) registered).matches(request.getToken())) {
+            System.out.println("No session to resume for '" + request.getUsername() + "'.");
+            return null;
+        }
+        ClientSession session = (ClientSession) registered;
+        ClientConnection previous = session.attach(handler, request.getLastSequence(), true);
+        if (previous == handler) {
+            return null; // Expired between the lookup and the attach
+        }
+        if (previous != null) {
+            previous.disconnect();
+        }
+        System.out.println("Client '" + session.getUsername() + "' resumed its session after #" + request.getLastSequence() + ".");
+        return session;
+    }
+
+    // Called when a session's connection closes: the session stays resumable for chat.resume.graceSeconds
+    public void removeClient(ClientSession session, ClientConnection handler) {
+        long generation = session.detach(handler);
+        if (generation < 0) {
+            return; // Replaced by a resumed connection
+        }
+        if (RESUME_GRACE_SECONDS <= 0) {
+            expireSession(session, generation);
+            return;
+        }
+        System.out.println("Client '" + session.getUsername() + "' disconnected; session kept for " + RESUME_GRACE_SECONDS + "s.");
+        sessionExpiry.schedule(() -> expireSession(session, generation), RESUME_GRACE_SECONDS, TimeUnit.SECONDS);
     }
 
-    // Method to remove a client handler when they disconnect
-    public void removeClient(String username) {
-        if (username != null) {
-            clientHandlers.remove(username);
-            System.out.println("Client '" + username + "' disconnected. Active clients: " + clientHandlers.size());
+    private void expireSession(ClientSession session, long generation) {
+        if (session.expireIfDetached(generation) && clientHandlers.release(session.getUsername(), session)) {
+            System.out.println("Client '" + session.getUsername() + "' disconnected. Active clients: " + clientHandlers.size());
             // Optional: Notify all clients that a user left
-            broadcastStatusMessage("User '" + username + "' left.");
+            broadcastStatusMessage("User '" + session.getUsername() + "' left.");
         }
     }
 
@@ -87,21 +178,79 @@ public class Server {
     }
 
 
+    /**
+     * Processes a received message and routes it: handed to the staged pipeline, or run inline on the calling
+     * thread with -Dchat.pipeline=inline. May wait for room in the pipeline, which throttles the sender.
+     */
+    public void processAndRoute(Message received, ClientConnection sender, SecretKey sessionKey, PrivateKey privateKey) {
+        processAndRoute(List.of(received), sender, sessionKey, privateKey);
+    }
+
+    // Same for a client's MessageBatch: processed as a whole, then routed in order
+    public void processAndRoute(List<Message> received, ClientConnection sender, SecretKey sessionKey, PrivateKey privateKey) {
+        metrics.messagesReceived(received.size());
+        if (pipeline == null) {
+            for (Message msg : received) {
+                MessageProcessor.process(msg, sessionKey, privateKey);
+            }
+            for (Message msg : received) {
+                routeMessage(msg, sender); // Failed messages are routed too, so clients see the failure
+            }
+            return;
+        }
+        try {
+            pipeline.submit(received, sender, sessionKey, privateKey);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("Interrupted while queueing message from '" + sender.getUsername() + "'; message dropped.");
+        }
+    }
+
     // Method to route the processed message
-    public void routeMessage(Message msg, ClientHandler senderHandler) {
+    public void routeMessage(Message processed, ClientConnection senderHandler) {
+        ChatEvents.Route event = new ChatEvents.Route();
+        event.begin();
+        long start = System.nanoTime();
+        int recipients = 0;
+        try {
+            recipients = fanOut(processed, senderHandler);
+        } finally {
+            metrics.recordSince(ServerMetrics.Stage.ROUTE, start);
+            if (event.shouldCommit()) {
+                event.sender = processed.getSender();
+                event.payloadSize = processed.getPayloadLength();
+                event.errorDetected = processed.isErrorDetected();
+                event.privateMessage = processed.isPrivateMessage();
+                event.recipientCount = recipients;
+                event.commit();
+            }
+        }
+    }
+
+    // Queues the message for its recipients; returns how many it went to
+    private int fanOut(Message processed, ClientConnection senderHandler) {
+        Message msg = processed;
+        if (leanDelivery) {
+            // Keep the pipeline stages here; every recipient gets the same lean copy.
+            // A message rejected before correction has no stages to trace, but still goes out lean.
+            msg = processed.leanCopy(processed.getErroredHamming() != null ? traceCache.store(processed) : 0);
+        }
         System.out.println("Routing message from " + msg.getSender() + " to " + (msg.isPrivateMessage() ? msg.getRecipient() : "GROUP"));
 
         if (msg.isPrivateMessage()) {
             // Private Message
-            ClientHandler recipientHandler = clientHandlers.get(msg.getRecipient());
+            ClientConnection recipientHandler = clientHandlers.get(msg.getRecipient());
+
+            Object frame = fanOutFrame(msg);
 
             // Send to sender (so they see their own message pipeline)
-            senderHandler.sendMessage(msg);
+            senderHandler.sendObject(frame);
 
             if (recipientHandler != null && recipientHandler != senderHandler) {
                 // Send to recipient
-                recipientHandler.sendMessage(msg);
+                recipientHandler.sendObject(frame);
                 System.out.println("Sent private message to '" + msg.getRecipient() + "'");
+                return 2;
             } else if (recipientHandler == senderHandler) {
                 System.out.println("Private message to self: Sent back to sender.");
             }
@@ -113,16 +262,39 @@ public class Server {
             }
         } else {
             // Group Message (Broadcast)
-            // Send to all clients, including the sender
-            for (ClientHandler handler : clientHandlers.values()) {
-                handler.sendMessage(msg);
+            // Send to all clients, including the sender; every queue gets the same encoded bytes
+            Object frame = fanOutFrame(msg);
+            List<ClientConnection> recipients = clientHandlers.snapshot();
+            for (ClientConnection handler : recipients) {
+                handler.sendObject(frame);
             }
             System.out.println("Broadcast group message.");
+            return recipients.size();
+        }
+        return 1; // Only the sender
+    }
+
+    // Encodes a routed message once for all its recipients instead of once per recipient.
+    // The legacy wire gets the Message itself, since Java serialization is per stream anyway.
+    private Object fanOutFrame(Message msg) {
+        if (MessageChannels.isLegacy()) {
+            return msg;
         }
+        try {
+            return EncodedFrame.of(msg);
+        } catch (IOException e) {
+            System.err.println("Error encoding message from '" + msg.getSender() + "': " + e.getMessage());
+            return msg; // Each connection reports its own failure, as before
+        }
+    }
+
+    // Looks up a pipeline trace for a client that opened a message's details
+    public PipelineTrace getTrace(long traceId, String requester) {
+        return traceCache.lookup(traceId, requester);
     }
 
     // Helper to create a simple text message from the server for the client UI
-    private Message createErrorMessage(String text, String sender) {
+    Message createErrorMessage(String text, String sender) {
         // This is a simple message that doesn't go through crypto/hamming pipeline
         Message errorMsg = new Message(sender, text, null, text);
         errorMsg.setFinalDecryptedContent(text); // Set the final text directly
@@ -131,47 +303,187 @@ public class Server {
     }
 
 
+    // Rotates the key pair every chat.key.rotateMinutes minutes (0 = never)
+    private void scheduleKeyRotation() {
+        long minutes = Long.getLong("chat.key.rotateMinutes", 0);
+        if (minutes <= 0) {
+            return;
+        }
+        scheduleEvery("key-rotation", minutes, TimeUnit.MINUTES, () -> {
+            try {
+                keyStore.rotate();
+            } catch (Exception e) {
+                System.err.println("Key rotation failed: " + e.getMessage());
+            }
+        });
+    }
+
+    // Logs the connections holding the most memory every chat.memory.reportSeconds seconds (0 = never)
+    private void scheduleMemoryReport() {
+        long seconds = Long.getLong("chat.memory.reportSeconds", 0);
+        if (seconds <= 0) {
+            return;
+        }
+        scheduleEvery("memory-report", seconds, TimeUnit.SECONDS, () -> {
+            System.out.println("[MEMORY] Buffered " + memoryBudget.getUsed() + " of " + memoryBudget.getLimit()
+                    + " bytes across " + clientHandlers.size() + " clients");
+            for (ClientConnection connection : heaviestConnections(MEMORY_REPORT_SIZE)) {
+                System.out.println("[MEMORY]   " + connection.getUsername() + ": buffered=" + connection.getBufferedBytes()
+                        + ", retained=" + connection.getRetainedBytes());
+            }
+        });
+    }
+
+    // Logs queue depth and service time of each pipeline stage every chat.pipeline.reportSeconds seconds (0 = never)
+    private void schedulePipelineReport() {
+        long seconds = Long.getLong("chat.pipeline.reportSeconds", 0);
+        if (seconds <= 0 || pipeline == null) {
+            return;
+        }
+        scheduleEvery("pipeline-report", seconds, TimeUnit.SECONDS, () -> System.out.println("[PIPELINE] " + pipeline));
+    }
+
+    // Exposes ServerMetrics over JMX and, with -Dchat.metrics.port, over HTTP
+    private void startMetrics() {
+        metrics.setConnectedClients(clientHandlers::size);
+        metrics.registerGauge("chat_buffered_bytes", memoryBudget::getUsed);
+        if (pipeline != null) {
+            for (ProcessingPipeline.Stage stage : pipeline.getStages()) {
+                metrics.registerGauge("chat_pipeline_queue_depth{stage=\"" + stage.getName() + "\"}", stage::getQueueDepth);
+            }
+        }
+        metrics.registerMBean();
+        MetricsEndpoint.startIfConfigured(metrics);
+        long seconds = Math.max(1, Long.getLong("chat.metrics.rateSeconds", 10));
+        scheduleEvery("metrics-rate", seconds, TimeUnit.SECONDS, metrics::sampleRate);
+    }
+
+    // Runs a periodic background task on its own daemon thread
+    private static void scheduleEvery(String threadName, long period, TimeUnit unit, Runnable task) {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, threadName);
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleAtFixedRate(task, period, period, unit);
+    }
+
+    // The n connected clients with the most buffered plus retained bytes, heaviest first
+    public List<ClientConnection> heaviestConnections(int n) {
+        List<ClientConnection> connections = new ArrayList<>(clientHandlers.snapshot());
+        connections.sort(Comparator.comparingLong((ClientConnection c) -> c.getBufferedBytes() + c.getRetainedBytes()).reversed());
+        return connections.subList(0, Math.min(n, connections.size()));
+    }
+
+    MemoryBudget getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    // Bytes a queued or replay-buffered frame holds. Encoded frames weigh their length. Legacy frames are only
+    // serialized by the writer, so they weigh an estimate: their strings and bit buffers plus a fixed allowance
+    // for the stream's field headers
+    static int weigh(Object frame) {
+        if (frame instanceof EncodedFrame) {
+            return ((EncodedFrame) frame).length();
+        }
+        if (frame instanceof SequencedFrame) {
+            return BinaryFrameCodec.SEQUENCE_HEADER_LENGTH + weigh(((SequencedFrame) frame).getFrame());
+        }
+        if (frame instanceof Message) {
+            Message msg = (Message) frame;
+            return LEGACY_FRAME_OVERHEAD + chars(msg.getSender()) + chars(msg.getRecipient())
+                    + chars(msg.getFullOriginalText()) + chars(msg.getContentToEncrypt())
+                    + chars(msg.getEncryptedContentBase64()) + chars(msg.getFinalDecryptedContent())
+                    + bytes(msg.getHammingEncoded()) + bytes(msg.getErroredHamming()) + bytes(msg.getCorrectedHamming());
+        }
+        if (frame instanceof PipelineTrace) {
+            PipelineTrace trace = (PipelineTrace) frame;
+            return LEGACY_FRAME_OVERHEAD + chars(trace.getEncryptedContentBase64())
+                    + bytes(trace.getHammingEncoded()) + bytes(trace.getErroredHamming()) + bytes(trace.getCorrectedHamming());
+        }
+        return LEGACY_FRAME_OVERHEAD;
+    }
+
+    private static int chars(String s) {
+        return s == null ? 0 : s.length();
+    }
+
+    private static int bytes(BitBuffer bits) {
+        return bits == null ? 0 : (bits.length() + 7) / 8;
+    }
+
+    // Current key pair; blocks only while the very first key pair is still being generated
+    public KeyPair getServerKeyPair() {
+        return keyStore.current();
+    }
+
     public PrivateKey getServerPrivateKey() {
-        return serverKeyPair.getPrivate();
+        return getServerKeyPair().getPrivate();
     }
 
     public PublicKey getServerPublicKey() {
-        return serverKeyPair.getPublic();
+        return getServerKeyPair().getPublic();
     }
 
 
     // Inner class to handle individual client connections
-    class ClientHandler extends Thread {
+    class ClientHandler implements Runnable, ClientConnection {
         private Socket clientSocket;
         private Server server;
-        private ObjectInputStream inputStream;
-        private ObjectOutputStream outputStream;
+        private volatile MessageChannel channel; // Binary frames, or Java serialization in legacy mode (-Dchat.wire)
         private String username; // Added username field
+        private ClientSession session; // Set by a login or a resume; routing sends to it, not to this handler
+        private SecretKey sessionKey; // AES-GCM key sent by the client during the handshake
+        private KeyPair handshakeKeyPair; // Key pair whose public key this client received (survives rotation)
+        // Routing threads only queue frames; this connection's writer thread is the only one touching the output stream
+        private final OutboundQueue<Object> outbound;
+        private Thread writer;
+        private volatile boolean closing;
+        private volatile ClientSession refillFrom; // Set while the session has routed frames waiting for room
 
         public ClientHandler(Socket socket, Server server) {
             this.clientSocket = socket;
             this.server = server;
+            this.outbound = OutboundQueue.fromSystemProperties(Server::weigh, server.getMemoryBudget());
         }
 
+        @Override
         public String getUsername() {
             return username;
         }
 
+        @Override
         public void run() {
             try {
-                // Initialize streams (Output first to avoid deadlock)
-                outputStream = new ObjectOutputStream(clientSocket.getOutputStream());
-                inputStream = new ObjectInputStream(clientSocket.getInputStream());
+                // Initialize the message channel
+                channel = MessageChannels.open(clientSocket);
+                channel.setMaxFrameLength(BinaryFrameCodec.MAX_HANDSHAKE_FRAME_LENGTH); // Raised once logged in
 
                 // 1. Send Server's Public Key to the Client
-                outputStream.writeObject(server.getServerPublicKey());
-                outputStream.flush(); // Ensure key is sent immediately
+                handshakeKeyPair = server.getServerKeyPair();
+                channel.writeObject(handshakeKeyPair.getPublic());
+                channel.flush(); // Ensure key is sent immediately
                 System.out.println("Sent public key to client: " + clientSocket);
 
-                // 2. Receive Client's Username
-                // Assuming the client sends the username as a String object first
-                Object initialObject = inputStream.readObject();
-                if (initialObject instanceof String) {
+                // Everything after the key goes out through the outbound queue
+                writer = ChatThreads.start("client-writer-" + clientSocket.getPort(), this::drainOutbound);
+
+                // 2. Receive Client's Username, or a request to resume an earlier session
+                Object initialObject = channel.readObject();
+                if (initialObject instanceof ResumeRequest) {
+                    session = server.resumeSession((ResumeRequest) initialObject, this);
+                    if (session != null) {
+                        // Same user, same session key: no new key exchange
+                        username = session.getUsername();
+                        sessionKey = session.getSessionKey();
+                        handshakeKeyPair = session.getHandshakeKeyPair();
+                        channel.setMaxFrameLength(BinaryFrameCodec.MAX_FRAME_LENGTH);
+                    } else {
+                        sendObject(SessionTicket.refused()); // The client logs in again on this connection
+                        initialObject = channel.readObject();
+                    }
+                }
+                if (session == null && initialObject instanceof String) {
                     this.username = (String) initialObject;
                     // Basic validation
                     if (this.username == null || this.username.trim().isEmpty()) {
@@ -181,66 +493,56 @@ public class Server {
                     this.username = this.username.trim(); // Trim whitespace
                     System.out.println("Received username '" + this.username + "' from client: " + clientSocket);
 
-                    // Add client to the server's map
-                    if (server.clientHandlers.containsKey(this.username)) {
+                    // Start a session under the name (reserved atomically)
+                    session = server.openSession(this.username, this, handshakeKeyPair);
+                    if (session == null) {
                         // Username already exists. Deny connection or append suffix?
                         // For now, deny and close connection.
                         System.err.println("Username '" + this.username + "' already in use. Denying connection: " + clientSocket);
                         sendMessage(createErrorMessage("Username '" + this.username + "' is already in use. Please try a different name.", "SERVER"));
                         return; // Exit handler run method
                     }
-                    server.addClient(this.username, this);
 
-                } else {
+                } else if (session == null) {
                     System.err.println("First object from client was not a username String. Disconnecting: " + clientSocket);
                     return; // Exit handler run method
                 }
 
 
-                // 3. Read Messages from Client
-                Message receivedMessage;
-                while (clientSocket.isConnected() && (receivedMessage = (Message) inputStream.readObject()) != null) {
-                    // The received message object contains sender, recipient, fullOriginalText,
-                    // contentToEncrypt (parsed client-side), encryptedContentBase64, erroredHammingBinary
-
-                    // --- Server-side Processing Pipeline ---
-
-                    // Step A: Hamming Correct
-                    String erroredBinary = receivedMessage.getErroredHammingBinary();
-                    String correctedBinary = HammingUtil.correctError(erroredBinary, receivedMessage);
-                    receivedMessage.setCorrectedHammingBinary(correctedBinary);
-                    // System.out.println("Hamming Corrected. Error Detected: " + receivedMessage.isErrorDetected()); // Too verbose
-
-
-                    // Step B: Hamming Decode
-                    String decodedBinary = HammingUtil.decode(correctedBinary);
-
-                    // Step C: Convert Binary String back to Encrypted Bytes
-                    byte[] encryptedBytes = HammingUtil.binaryStringToBytes(decodedBinary);
-
-                    // Step D: RSA Decrypt
-                    try {
-                        byte[] decryptedBytes = RSAUtil.decrypt(encryptedBytes, server.getServerPrivateKey());
-                        String finalDecryptedContent = RSAUtil.bytesToString(decryptedBytes);
-                        receivedMessage.setFinalDecryptedContent(finalDecryptedContent);
-                        // System.out.println("RSA Decrypted. Final Content: '" + finalDecryptedContent + "'"); // Too verbose
-
-
-                        // --- Server-side Routing ---
-                        server.routeMessage(receivedMessage, this); // Pass the message and the sender handler
-
-                    } catch (BadPaddingException e) {
-                        // This might happen if decryption fails (e.g., due to uncorrectable error or tampering)
-                        System.err.println("RSA Decryption failed (BadPaddingException) for message from " + receivedMessage.getSender() + ". Likely corrupt. " + e.getMessage());
-                        receivedMessage.setFinalDecryptedContent("[DECRYPTION FAILED]"); // Set error text
-                        // Route the message anyway so clients see the failure
-                        server.routeMessage(receivedMessage, this);
-                    } catch (Exception e) {
-                        // Other decryption errors
-                        System.err.println("RSA Decryption failed unexpectedly for message from " + receivedMessage.getSender() + ": " + e.getMessage());
-                        e.printStackTrace();
-                        receivedMessage.setFinalDecryptedContent("[DECRYPTION ERROR]"); // Set error text
-                        server.routeMessage(receivedMessage, this); // Route the message with error info
+                // 3. Read objects from Client: an optional wrapped session key, then Messages
+                Object received;
+                while (clientSocket.isConnected() && (received = channel.readObject()) != null) {
+                    long readNanos = channel.lastReadNanos();
+                    if (readNanos >= 0) {
+                        metrics.record(ServerMetrics.Stage.READ, readNanos);
+                    }
+                    if (received instanceof byte[]) {
+                        // Session key handshake: AES key wrapped with our public key
+                        try {
+                            sessionKey = AESUtil.unwrapKey((byte[]) received, handshakeKeyPair.getPrivate());
+                            session.setSessionKey(sessionKey); // Kept for a resume
+                            channel.setMaxFrameLength(BinaryFrameCodec.MAX_FRAME_LENGTH);
+                            System.out.println("Session key established for '" + username + "'.");
+                        } catch (Exception e) {
+                            System.err.println("Could not unwrap session key from '" + username + "': " + e.getMessage());
+                        }
+                    } else if (received instanceof Message) {
+                        // --- Server-side Processing Pipeline and Routing ---
+                        // Correction, decryption and routing run on the pipeline's stages; this thread goes back to reading
+                        if (session.accept(this, 1)) {
+                            server.processAndRoute((Message) received, session, sessionKey, handshakeKeyPair.getPrivate());
+                        }
+                    } else if (received instanceof MessageBatch) {
+                        // Several messages the client coalesced into one frame
+                        List<Message> messages = ((MessageBatch) received).getMessages();
+                        if (session.accept(this, messages.size())) {
+                            server.processAndRoute(messages, session, sessionKey, handshakeKeyPair.getPrivate());
+                        }
+                    } else if (received instanceof TraceRequest) {
+                        // Lazily requested pipeline details for a lean message
+                        sendObject(server.getTrace(((TraceRequest) received).getTraceId(), username));
+                    } else {
+                        System.err.println("Received unexpected object type from '" + username + "': " + received.getClass().getName());
                     }
                 }
 
@@ -255,30 +557,136 @@ public class Server {
                 System.err.println("Received unknown object from client '" + username + "': " + e.getMessage());
                 e.printStackTrace();
             } finally {
-                // Clean up
+                // Clean up: let the writer send what is already queued (e.g. a "username in use" notice), then close
+                closing = true;
+                outbound.close();
+                if (writer != null) {
+                    try {
+                        writer.join(WRITER_DRAIN_MILLIS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                outbound.discard(); // Whatever the writer could not send gives its bytes back to the server budget
+                if (outbound.getDroppedCount() > 0) {
+                    System.out.println("Outbound queue of '" + username + "' dropped frames: " + outbound);
+                }
                 try {
-                    if (inputStream != null) inputStream.close();
-                    if (outputStream != null) outputStream.close();
+                    if (channel != null) channel.close();
                     if (clientSocket != null && !clientSocket.isClosed()) clientSocket.close();
                 } catch (IOException e) {
                     System.err.println("Error closing client socket/streams for '" + username + "': " + e.getMessage());
                 }
-                server.removeClient(this.username); // Remove this handler from the server's map
+                if (session != null) {
+                    server.removeClient(session, this); // The session waits for a resume, then leaves the server's map
+                }
             }
         }
 
         // Method for server to send a message object to this specific client
+        @Override
         public void sendMessage(Message msg) {
+            sendObject(msg);
+        }
+
+        // Queues any protocol object (Message, PipelineTrace) for this client; never waits on the socket
+        // (only on a full queue with the BLOCK policy)
+        @Override
+        public void sendObject(Object msg) {
             try {
-                if (outputStream != null) {
-                    outputStream.writeObject(msg);
-                    outputStream.flush();
-                    // System.out.println("Sent message object to client '" + username + "'."); // Too verbose
-                }
+                msg = encodeForQueue(msg);
             } catch (IOException e) {
                 System.err.println("Error sending message to client '" + username + "': " + e.getMessage());
-                // Consider removing client if sending fails consistently
-                // server.removeClient(this.username); // Or handle appropriately
+                return;
+            }
+            if (!outbound.offer(msg) && !closing) {
+                // DISCONNECT policy: the client fell too far behind
+                System.err.println("Client '" + username + "' is too slow (" + outbound + "). Disconnecting.");
+                closeSocket(); // The reader thread fails and cleans up
+            }
+        }
+
+        @Override
+        public boolean offerSequenced(SequencedFrame frame, ClientSession owner) {
+            Object queued;
+            try {
+                queued = encodeForQueue(frame);
+            } catch (IOException e) {
+                System.err.println("Error sending message to client '" + username + "': " + e.getMessage());
+                return true; // Skipped, as sendObject would
+            }
+            refillFrom = owner; // Before the offer, so a writer that drains the queue meanwhile still pumps
+            if (!outbound.offerIfRoom(queued)) {
+                return false;
+            }
+            refillFrom = null;
+            return true;
+        }
+
+        // Encodes here, like the nio engine, so the queue knows how many bytes it holds (not on the legacy wire).
+        // A sequenced frame keeps its (usually shared) encoded inner frame; only the header is its own
+        private Object encodeForQueue(Object msg) throws IOException {
+            if (msg instanceof EncodedFrame || MessageChannels.isLegacy()) {
+                return msg;
+            }
+            if (msg instanceof SequencedFrame) {
+                SequencedFrame sequenced = (SequencedFrame) msg;
+                return sequenced.getFrame() instanceof EncodedFrame
+                        ? sequenced : new SequencedFrame(sequenced.getSequence(), EncodedFrame.of(sequenced.getFrame()));
+            }
+            return EncodedFrame.of(msg);
+        }
+
+        // Writer thread: drains the outbound queue, flushing once per burst instead of once per frame
+        private void drainOutbound() {
+            try {
+                Object frame;
+                while ((frame = outbound.take()) != null) {
+                    long start = System.nanoTime();
+                    channel.writeObject(frame);
+                    if (outbound.isEmpty()) {
+                        channel.flush();
+                        ClientSession owner = refillFrom;
+                        if (owner != null) {
+                            refillFrom = null;
+                            owner.pump(this); // Routed frames that did not fit while the queue was full
+                        }
+                    }
+                    metrics.recordSince(ServerMetrics.Stage.WRITE, start);
+                }
+                channel.flush();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                if (!closing) {
+                    System.err.println("Error sending message to client '" + username + "': " + e.getMessage());
+                }
+                outbound.discard();
+                closeSocket();
+            }
+        }
+
+        @Override
+        public long getBufferedBytes() {
+            return outbound.getBytes();
+        }
+
+        @Override
+        public long getRetainedBytes() {
+            MessageChannel current = channel;
+            return current == null ? 0 : current.retainedBytes();
+        }
+
+        @Override
+        public void disconnect() {
+            closeSocket(); // The reader thread fails and cleans up
+        }
+
+        private void closeSocket() {
+            try {
+                clientSocket.close();
+            } catch (IOException e) {
+                System.err.println("Error closing client socket for '" + username + "': " + e.getMessage());
             }
         }
     }
@@ -0,0 +1,191 @@
+package com.somnath.server;
+
+import com.somnath.common.RSAUtil;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.*;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.concurrent.*;
+
+/**
+ * Holds the server's RSA key pair.
+ * The pair is loaded from a local key file (-Dchat.keystore, default server-keys.bin) so restarts
+ * are fast and clients see the same public key; on first run it is generated in the background
+ * and saved, while the server already accepts connections (handlers wait for the key).
+ * Optionally keeps a pool of pre-generated pairs (-Dchat.keypool.size) so rotate() never has to
+ * wait for key generation.
+ */
+public class ServerKeyStore {
+
+    private static final int FILE_MAGIC = 0x4B455953; // "KEYS"
+    private static final int FILE_VERSION = 1;
+    private static final String KEY_ALGORITHM = "RSA";
+
+    private final Path file;
+    private final int poolSize;
+    private final BlockingQueue<KeyPair> pool;
+    private final ExecutorService generator; // Single daemon thread for all background generation
+
+    private volatile CompletableFuture<KeyPair> current;
+
+    public ServerKeyStore(Path file, int poolSize) {
+        this.file = file;
+        this.poolSize = poolSize;
+        this.pool = new LinkedBlockingQueue<>();
+        this.generator = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "key-generator");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** Key store configured from system properties. */
+    public static ServerKeyStore fromSystemProperties() {
+        return new ServerKeyStore(Paths.get(System.getProperty("chat.keystore", "server-keys.bin")),
+                Integer.getInteger("chat.keypool.size", 0));
+    }
+
+    /**
+     * Loads the key pair from the key file, or starts generating one in the background.
+     * Returns without waiting for generation.
+     */
+    public void start() {
+        KeyPair stored = null;
+        if (Files.exists(file)) {
+            try {
+                stored = read(file);
+                System.out.println("Server RSA KeyPair loaded from " + file);
+            } catch (IOException | GeneralSecurityException e) {
+                System.err.println("Could not read key file " + file + " (" + e.getMessage() + "). Generating a new key pair.");
+                moveAside(file);
+            }
+        }
+        if (stored != null) {
+            current = CompletableFuture.completedFuture(stored);
+        } else {
+            current = CompletableFuture.supplyAsync(this::generateAndSave, generator);
+        }
+        refillPool();
+    }
+
+    /**
+     * The current key pair, waiting for first-run generation if it has not finished yet.
+     */
+    public KeyPair current() {
+        return current.join();
+    }
+
+    /**
+     * Replaces the current key pair with a pre-generated one from the pool (or a fresh one if the
+     * pool is empty) and saves it. Connections already established keep the pair they were given.
+     */
+    public KeyPair rotate() throws IOException, GeneralSecurityException {
+        KeyPair next = pool.poll();
+        if (next == null) {
+            next = RSAUtil.generateKeyPair();
+        }
+        write(file, next);
+        current = CompletableFuture.completedFuture(next);
+        refillPool();
+        System.out.println("Server RSA KeyPair rotated (" + pool.size() + " pre-generated pair(s) left).");
+        return next;
+    }
+
+    public int getPooledKeyCount() {
+        return pool.size();
+    }
+
+    private KeyPair generateAndSave() {
+        try {
+            KeyPair generated = RSAUtil.generateKeyPair();
+            write(file, generated);
+            System.out.println("Server RSA KeyPair generated and saved to " + file);
+            return generated;
+        } catch (Exception e) {
+            throw new CompletionException("Server key generation failed", e);
+        }
+    }
+
+    private void refillPool() {
+        if (poolSize <= 0) {
+            return;
+        }
+        generator.execute(() -> {
+            while (pool.size() < poolSize) {
+                try {
+                    pool.add(RSAUtil.generateKeyPair());
+                } catch (NoSuchAlgorithmException e) {
+                    System.err.println("Key pool generation failed: " + e.getMessage());
+                    return;
+                }
+            }
+        });
+    }
+
+    // --- Key file format: magic, version, X.509 public key, PKCS#8 private key (length-prefixed) ---
+
+    private static KeyPair read(Path file) throws IOException, GeneralSecurityException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+                throw new IOException("Not a server key file");
+            }
+            byte[] publicBytes = readBlock(in);
+            byte[] privateBytes = readBlock(in);
+            KeyFactory keyFactory = KeyFactory.getInstance(KEY_ALGORITHM);
+            PublicKey publicKey = keyFactory.generatePublic(new X509EncodedKeySpec(publicBytes));
+            PrivateKey privateKey = keyFactory.generatePrivate(new PKCS8EncodedKeySpec(privateBytes));
+            return new KeyPair(publicKey, privateKey);
+        }
+    }
+
+    private static void write(Path file, KeyPair keyPair) throws IOException {
+        Path absolute = file.toAbsolutePath();
+        Path temp = Files.createTempFile(absolute.getParent(), "server-keys", ".tmp");
+        try {
+            restrictToOwner(temp);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(FILE_MAGIC);
+                out.writeInt(FILE_VERSION);
+                writeBlock(out, keyPair.getPublic().getEncoded());
+                writeBlock(out, keyPair.getPrivate().getEncoded());
+            }
+            Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static byte[] readBlock(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length <= 0 || length > 64 * 1024) {
+            throw new IOException("Invalid key length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static void writeBlock(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void restrictToOwner(Path path) {
+        try {
+            Files.setPosixFilePermissions(path, PosixFilePermissions.fromString("rw-------"));
+        } catch (UnsupportedOperationException | IOException e) {
+            // Not a POSIX file system (e.g. Windows); rely on the directory's permissions
+        }
+    }
+
+    private static void moveAside(Path file) {
+        try {
+            Files.move(file, file.resolveSibling(file.getFileName() + ".corrupt"), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            System.err.println("Could not move unreadable key file aside: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.somnath.server;
+
+import com.somnath.common.LatencyHistogram;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Server telemetry: a latency histogram per processing stage plus LongAdder counters, cheap enough to leave
+ * on in production. One instance per JVM (get()), so the static MessageProcessor can record into it too.
+ *
+ * Read it through JMX (ServerMetricsMXBean) or as plain text from MetricsEndpoint (-Dchat.metrics.port).
+ */
+public class ServerMetrics implements ServerMetricsMXBean {
+
+    /**
+     * Timed steps of the server pipeline. READ covers reading and decoding a frame once it starts arriving,
+     * not the wait for it; WRITE is one socket write (a frame, or a gathered set of frames with the nio engine).
+     */
+    public enum Stage {
+        READ, CORRECT, DECODE, DECRYPT, ROUTE, WRITE;
+
+        final String label = name().toLowerCase(Locale.ROOT);
+    }
+
+    private static final ServerMetrics INSTANCE = new ServerMetrics();
+    private static final String OBJECT_NAME = "com.somnath.chat:type=ServerMetrics";
+
+    private final LatencyHistogram[] stages = new LatencyHistogram[Stage.values().length];
+    private final LongAdder messagesReceived = new LongAdder();
+    private final LongAdder errorsCorrected = new LongAdder();
+    private final LongAdder uncorrectable = new LongAdder();
+    private final LongAdder decryptionFailures = new LongAdder();
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>(); // Extra values owned by others
+    private volatile IntSupplier connectedClients = () -> 0;
+
+    // Rate sampling, only touched by sampleRate()
+    private long lastSampleNanos = System.nanoTime();
+    private long lastSampleCount;
+    private volatile double messagesPerSecond;
+
+    private ServerMetrics() {
+        for (Stage stage : Stage.values()) {
+            stages[stage.ordinal()] = new LatencyHistogram();
+        }
+    }
+
+    public static ServerMetrics get() {
+        return INSTANCE;
+    }
+
+    // --- Recording ---
+
+    public void record(Stage stage, long nanos) {
+        stages[stage.ordinal()].record(nanos);
+    }
+
+    public void recordSince(Stage stage, long startNanos) {
+        stages[stage.ordinal()].recordSince(startNanos);
+    }
+
+    public void messagesReceived(int count) {
+        messagesReceived.add(count);
+    }
+
+    public void errorCorrected() {
+        errorsCorrected.increment();
+    }
+
+    public void uncorrectable() {
+        uncorrectable.increment();
+    }
+
+    public void decryptionFailed() {
+        decryptionFailures.increment();
+    }
+
+    public void setConnectedClients(IntSupplier connectedClients) {
+        this.connectedClients = connectedClients;
+    }
+
+    // Publishes a value computed on demand (queue depths, buffered bytes) under a metric name
+    public void registerGauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    // Called every chat.metrics.rateSeconds by the server
+    synchronized void sampleRate() {
+        long now = System.nanoTime();
+        long count = messagesReceived.sum();
+        messagesPerSecond = (count - lastSampleCount) * 1e9 / Math.max(1, now - lastSampleNanos);
+        lastSampleNanos = now;
+        lastSampleCount = count;
+    }
+
+    public void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+        } catch (InstanceAlreadyExistsException e) {
+            // Already registered by an earlier Server in this JVM
+        } catch (JMException e) {
+            System.err.println("Could not register metrics MBean: " + e.getMessage());
+        }
+    }
+
+    public LatencyHistogram getStage(Stage stage) {
+        return stages[stage.ordinal()];
+    }
+
+    // --- ServerMetricsMXBean ---
+
+    @Override
+    public int getConnectedClients() {
+        return connectedClients.getAsInt();
+    }
+
+    @Override
+    public long getMessagesReceived() {
+        return messagesReceived.sum();
+    }
+
+    @Override
+    public double getMessagesPerSecond() {
+        return messagesPerSecond;
+    }
+
+    @Override
+    public long getErrorsCorrected() {
+        return errorsCorrected.sum();
+    }
+
+    @Override
+    public long getUncorrectableMessages() {
+        return uncorrectable.sum();
+    }
+
+    @Override
+    public long getDecryptionFailures() {
+        return decryptionFailures.sum();
+    }
+
+    @Override
+    public Map<String, Double> getStageLatencyMicros() {
+        Map<String, Double> latencies = new LinkedHashMap<>();
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram histogram = getStage(stage);
+            latencies.put(stage.label + ".p50", histogram.getPercentileNanos(0.5) / 1000.0);
+            latencies.put(stage.label + ".p99", histogram.getPercentileNanos(0.99) / 1000.0);
+            latencies.put(stage.label + ".p999", histogram.getPercentileNanos(0.999) / 1000.0);
+            latencies.put(stage.label + ".max", histogram.getMaxNanos() / 1000.0);
+        }
+        return latencies;
+    }
+
+    @Override
+    public Map<String, Long> getStageCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (Stage stage : Stage.values()) {
+            counts.put(stage.label, getStage(stage).getCount());
+        }
+        return counts;
+    }
+
+    /**
+     * All metrics as "name value" lines (Prometheus text format), for MetricsEndpoint.
+     */
+    public String toText() {
+        StringBuilder out = new StringBuilder(2048);
+        line(out, "chat_connected_clients", getConnectedClients());
+        line(out, "chat_messages_received_total", getMessagesReceived());
+        line(out, "chat_messages_per_second", getMessagesPerSecond());
+        line(out, "chat_errors_corrected_total", getErrorsCorrected());
+        line(out, "chat_uncorrectable_messages_total", getUncorrectableMessages());
+        line(out, "chat_decryption_failures_total", getDecryptionFailures());
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram histogram = getStage(stage);
+            String labels = "{stage=\"" + stage.label + "\"";
+            line(out, "chat_stage_latency_micros" + labels + ",quantile=\"0.5\"}", histogram.getPercentileNanos(0.5) / 1000.0);
+            line(out, "chat_stage_latency_micros" + labels + ",quantile=\"0.99\"}", histogram.getPercentileNanos(0.99) / 1000.0);
+            line(out, "chat_stage_latency_micros" + labels + ",quantile=\"0.999\"}", histogram.getPercentileNanos(0.999) / 1000.0);
+            line(out, "chat_stage_latency_micros_max" + labels + "}", histogram.getMaxNanos() / 1000.0);
+            line(out, "chat_stage_count_total" + labels + "}", histogram.getCount());
+        }
+        for (Map.Entry<String, LongSupplier> gauge : gauges.entrySet()) {
+            line(out, gauge.getKey(), gauge.getValue().getAsLong());
+        }
+        return out.toString();
+    }
+
+    private static void line(StringBuilder out, String name, double value) {
+        out.append(name).append(' ').append(String.format(Locale.ROOT, "%.3f", value)).append('\n');
+    }
+
+    private static void line(StringBuilder out, String name, long value) {
+        out.append(name).append(' ').append(value).append('\n');
+    }
+}
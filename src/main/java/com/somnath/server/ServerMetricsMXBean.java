@@ -0,0 +1,28 @@
+package com.somnath.server;
+
+import java.util.Map;
+
+/**
+ * JMX view of ServerMetrics, registered as com.somnath.chat:type=ServerMetrics.
+ */
+public interface ServerMetricsMXBean {
+
+    int getConnectedClients();
+
+    long getMessagesReceived();
+
+    // Over the last sampling interval (chat.metrics.rateSeconds)
+    double getMessagesPerSecond();
+
+    long getErrorsCorrected();
+
+    long getUncorrectableMessages();
+
+    long getDecryptionFailures();
+
+    // "<stage>.p50", "<stage>.p99", "<stage>.p999" and "<stage>.max" per stage, in microseconds
+    Map<String, Double> getStageLatencyMicros();
+
+    // Stage name -> number of timings recorded
+    Map<String, Long> getStageCounts();
+}
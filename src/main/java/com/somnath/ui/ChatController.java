@@ -2,8 +2,11 @@ package com.somnath.ui;
 
 // ui/ChatController.java
 
+import com.somnath.common.ChatThreads;
 import com.somnath.common.Message;
+import com.somnath.common.PipelineTrace;
 import com.somnath.client.Client;
+import com.somnath.client.ClientListener;
 
 import javafx.application.Platform;
 import javafx.fxml.FXML;
@@ -24,7 +27,7 @@ import javafx.stage.Stage;
 import java.net.URL;
 import java.util.ResourceBundle;
 
-public class ChatController implements Initializable {
+public class ChatController implements Initializable, ClientListener {
 
     @FXML private ListView<Message> messageListView;
     @FXML private TextField messageTextField;
@@ -93,8 +96,8 @@ public class ChatController implements Initializable {
 
     // --- Client Connection Management ---
     private void startClientConnection(String host, int port) {
-        // It's better to run the client connection in a separate thread
-        new Thread(() -> {
+        // It's better to run the client connection in a separate thread (virtual unless -Dchat.threads=platform)
+        ChatThreads.start("client-connect-" + username, () -> {
             client = new Client(host, port, username, this); // Pass 'this' controller
             client.startClient(); // This method blocks until connected or fails
             // After startClient returns, check connection status and update UI
@@ -114,7 +117,7 @@ public class ChatController implements Initializable {
                     sendButton.setDisable(true);
                 }
             });
-        }).start();
+        });
     }
 
 
@@ -126,10 +129,22 @@ public class ChatController implements Initializable {
         }
 
         // The client class now handles parsing the @username syntax internally
-        if (client != null && client.socket != null && client.socket.isConnected()) {
-            // Pass the full typed text to the client layer
-            client.sendMessage(text.trim());
+        if (client != null && !client.isClosed()) { // Also while reconnecting: the message waits for the resume
+            // Pass the full typed text to the client layer; encryption and the socket write happen on its
+            // sender thread, so the UI thread never waits for them
+            String typed = text.trim();
             messageTextField.clear(); // Clear input field
+            client.sendMessageAsync(typed).whenComplete((ignored, error) -> {
+                if (error != null) {
+                    Throwable cause = error.getCause() != null ? error.getCause() : error;
+                    displayStatus("Message not sent: " + cause.getMessage(), Color.RED);
+                    Platform.runLater(() -> {
+                        if (messageTextField.getText().isEmpty()) {
+                            messageTextField.setText(typed); // Give it back so it can be sent again
+                        }
+                    });
+                }
+            });
         } else {
             displayStatus("Error: Not connected to server.", Color.RED);
             // Maybe attempt to reconnect or prompt user?
@@ -137,6 +152,7 @@ public class ChatController implements Initializable {
     }
 
     // --- Receiving and Displaying Messages (Called by Client Thread) ---
+    @Override
     public void displayMessage(Message msg) {
         // Ensure UI updates happen on the JavaFX Application Thread
         Platform.runLater(() -> {
@@ -166,7 +182,20 @@ public class ChatController implements Initializable {
         });
     }
 
+    // --- Apply lazily fetched pipeline details (Called by Client Thread) ---
+    @Override
+    public void applyTrace(Message msg, PipelineTrace trace) {
+        Platform.runLater(() -> {
+            trace.applyTo(msg);
+            if (!trace.isAvailable()) {
+                displayStatus("Details for this message are no longer available on the server.", Color.ORANGE);
+            }
+            messageListView.refresh();
+        });
+    }
+
     // --- Update Status Label (Called by Client Thread) ---
+    @Override
     public void displayStatus(String status) {
         displayStatus(status, Color.BLACK); // Default color
     }
@@ -225,6 +254,10 @@ public class ChatController implements Initializable {
                 if (currentMessage != null) {
                     // Toggle the 'expanded' state of the Message object
                     currentMessage.setExpanded(!currentMessage.isExpanded());
+                    // Lean messages arrive without their pipeline stages; fetch them on first expand
+                    if (currentMessage.isExpanded() && currentMessage.needsTrace() && client != null) {
+                        client.requestTrace(currentMessage);
+                    }
                     // Tell the ListView to refresh its display. This will cause updateItem()
                     // to be called again for this cell, allowing it to update its layout.
                     getListView().refresh(); // Refresh the whole list to update this cell
@@ -333,17 +366,20 @@ public class ChatController implements Initializable {
                 ((TextFlow) originalSection.getChildren().get(1)).getChildren().add(new Text("Original: " + (msg.getFullOriginalText() != null ? msg.getFullOriginalText() : "N/A"))); // Added "Original: " label here for clarity
 
 
+                // Placeholder for the detail sections; "Loading..." while a lean message's trace is in flight
+                String pendingText = msg.needsTrace() ? "Loading..." : "N/A";
+
                 // Encrypted Content (Inside detailsVBox)
                 ((TextFlow) encryptedSection.getChildren().get(1)).getChildren().clear();
-                ((TextFlow) encryptedSection.getChildren().get(1)).getChildren().add(new Text(msg.getEncryptedContentBase64() != null ? msg.getEncryptedContentBase64() : "N/A"));
+                ((TextFlow) encryptedSection.getChildren().get(1)).getChildren().add(new Text(msg.getEncryptedContentBase64() != null ? msg.getEncryptedContentBase64() : pendingText));
 
                 // Hamming Errored Binary (Inside detailsVBox)
                 ((TextFlow) erroredSection.getChildren().get(1)).getChildren().clear();
-                ((TextFlow) erroredSection.getChildren().get(1)).getChildren().add(new Text(msg.getErroredHammingBinary() != null ? msg.getErroredHammingBinary() : "N/A"));
+                ((TextFlow) erroredSection.getChildren().get(1)).getChildren().add(new Text(msg.getErroredHammingBinary() != null ? msg.getErroredHammingBinary() : pendingText));
 
                 // Hamming Corrected Binary (Inside detailsVBox)
                 ((TextFlow) correctedSection.getChildren().get(1)).getChildren().clear();
-                ((TextFlow) correctedSection.getChildren().get(1)).getChildren().add(new Text(msg.getCorrectedHammingBinary() != null ? msg.getCorrectedHammingBinary() : "N/A"));
+                ((TextFlow) correctedSection.getChildren().get(1)).getChildren().add(new Text(msg.getCorrectedHammingBinary() != null ? msg.getCorrectedHammingBinary() : pendingText));
 
 
                 // Final Decrypted Content (using the direct TextFlow reference, part of the HBox)
@@ -354,7 +390,8 @@ public class ChatController implements Initializable {
 
                 // Apply colors/styles based on content/sender
                 // Check if the message went through the full client-side processing pipeline
-                boolean hammingProcessed = msg.getErroredHammingBinary() != null;
+                // (lean messages only carry a trace id until their details are fetched)
+                boolean hammingProcessed = msg.getErroredHamming() != null || msg.getTraceId() != 0;
 
                 if (decryptedText.startsWith("[DECRYPTION FAILED]") || decryptedText.startsWith("[DECRYPTION ERROR]")) {
                     decryptedTextNode.setFill(Color.RED);
@@ -390,7 +427,10 @@ public class ChatController implements Initializable {
                 // Error Status Label - Set its text and color based on Hamming processing result.
                 // Its visibility/managed state is controlled by the detailsVBox (which is toggled).
                 if (hammingProcessed) {
-                    if (msg.isErrorDetected()) {
+                    if (msg.isErrorUncorrectable()) {
+                        errorStatusLabel.setText("Hamming Error: Detected, Uncorrectable");
+                        errorStatusLabel.setTextFill(Color.RED);
+                    } else if (msg.isErrorDetected()) {
                         errorStatusLabel.setText("Hamming Error: Detected and Corrected");
                         errorStatusLabel.setTextFill(Color.ORANGE);
                     } else {
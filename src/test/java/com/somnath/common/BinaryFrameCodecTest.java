@@ -0,0 +1,177 @@
+package com.somnath.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BinaryFrameCodecTest {
+
+    @Test
+    void messageRoundTrip() throws IOException {
+        Message sent = sampleMessage("alice", "bob");
+
+        Message received = (Message) roundTrip(sent);
+
+        assertEquals("alice", received.getSender());
+        assertEquals("bob", received.getRecipient());
+        assertEquals(sent.getFullOriginalText(), received.getFullOriginalText());
+        assertEquals(sent.getContentToEncrypt(), received.getContentToEncrypt());
+        assertEquals(Message.CIPHER_AES_GCM, received.getCipher());
+        assertEquals(sent.getEncryptedContentBase64(), received.getEncryptedContentBase64());
+        assertEquals(ErrorCorrectingCodes.SECDED_8_4, received.getEccScheme());
+        assertEquals(sent.getPayloadLength(), received.getPayloadLength());
+        assertEquals(sent.getHammingEncoded(), received.getHammingEncoded());
+        assertEquals(sent.getErroredHamming(), received.getErroredHamming());
+        assertNull(received.getCorrectedHamming());
+        assertEquals("hello", received.getFinalDecryptedContent());
+        assertEquals(42, received.getTraceId());
+        assertTrue(received.isErrorDetected());
+        assertTrue(received.isErrorCorrected());
+        assertFalse(received.isErrorUncorrectable());
+        assertTrue(received.isCompressed());
+    }
+
+    @Test
+    void batchRoundTrip() throws IOException {
+        MessageBatch sent = new MessageBatch(List.of(sampleMessage("alice", null), sampleMessage("alice", "carol")));
+
+        MessageBatch received = (MessageBatch) roundTrip(sent);
+
+        assertEquals(2, received.getMessages().size());
+        assertNull(received.getMessages().get(0).getRecipient());
+        assertEquals("carol", received.getMessages().get(1).getRecipient());
+    }
+
+    @Test
+    void controlFramesRoundTrip() throws IOException {
+        assertEquals("alice", roundTrip("alice"));
+        assertArrayEquals(new byte[] {1, 2, 3}, (byte[]) roundTrip(new byte[] {1, 2, 3}));
+        assertEquals(7L, ((TraceRequest) roundTrip(new TraceRequest(7))).getTraceId());
+
+        ResumeRequest resume = (ResumeRequest) roundTrip(new ResumeRequest("alice", new byte[] {9, 8}, 123));
+        assertEquals("alice", resume.getUsername());
+        assertArrayEquals(new byte[] {9, 8}, resume.getToken());
+        assertEquals(123, resume.getLastSequence());
+
+        SessionTicket ticket = (SessionTicket) roundTrip(new SessionTicket(new byte[] {5}, 17, true));
+        assertArrayEquals(new byte[] {5}, ticket.getToken());
+        assertEquals(17, ticket.getReceivedCount());
+        assertTrue(ticket.isResumed());
+        assertTrue(((SessionTicket) roundTrip(SessionTicket.refused())).isRefused());
+    }
+
+    @Test
+    void sequenceHeaderPlusSharedFrameMatchesEncode() throws IOException {
+        EncodedFrame inner = EncodedFrame.of(sampleMessage("alice", null));
+        byte[] header = BinaryFrameCodec.sequenceHeader(99, inner.length());
+        byte[] written = new byte[header.length + inner.length()];
+        System.arraycopy(header, 0, written, 0, header.length);
+        System.arraycopy(inner.bytes(), 0, written, header.length, inner.length());
+
+        assertArrayEquals(BinaryFrameCodec.encode(new SequencedFrame(99, inner)), written);
+        SequencedFrame decoded = (SequencedFrame) decodeFrame(written);
+        assertEquals(99, decoded.getSequence());
+        assertEquals("alice", ((Message) decoded.getFrame()).getSender());
+    }
+
+    @Test
+    void rejectsUnsupportedVersion() throws IOException {
+        byte[] frame = BinaryFrameCodec.encode("alice");
+        frame[BinaryFrameCodec.HEADER_LENGTH] = BinaryFrameCodec.VERSION - 1;
+
+        assertThrows(IOException.class, () -> decodeFrame(frame));
+    }
+
+    @Test
+    void rejectsUnknownType() throws IOException {
+        byte[] frame = BinaryFrameCodec.encode("alice");
+        frame[BinaryFrameCodec.HEADER_LENGTH + 1] = 99;
+
+        assertThrows(IOException.class, () -> decodeFrame(frame));
+    }
+
+    @Test
+    void rejectsTruncatedFrame() throws IOException {
+        byte[] frame = BinaryFrameCodec.encode(sampleMessage("alice", "bob"));
+        byte[] truncated = Arrays.copyOf(frame, frame.length - 10);
+
+        assertThrows(IOException.class, () -> BinaryFrameCodec.decode(truncated, BinaryFrameCodec.HEADER_LENGTH,
+                truncated.length - BinaryFrameCodec.HEADER_LENGTH));
+    }
+
+    @Test
+    void rejectsFieldLongerThanFrame() throws IOException {
+        byte[] frame = BinaryFrameCodec.encode("alice");
+        int lengthField = BinaryFrameCodec.HEADER_LENGTH + 2; // Right after version and type
+        frame[lengthField] = 0x7F;
+
+        assertThrows(IOException.class, () -> decodeFrame(frame));
+    }
+
+    @Test
+    void rejectsNestedSequencedFrame() throws IOException {
+        byte[] nested = BinaryFrameCodec.encode(new SequencedFrame(2, new SequencedFrame(1, "alice")));
+
+        assertThrows(IOException.class, () -> decodeFrame(nested));
+    }
+
+    @Test
+    void checksFrameLengthBounds() throws IOException {
+        BinaryFrameCodec.checkFrameLength(2, 100);
+        BinaryFrameCodec.checkFrameLength(100, 100);
+
+        assertThrows(IOException.class, () -> BinaryFrameCodec.checkFrameLength(1, 100));
+        assertThrows(IOException.class, () -> BinaryFrameCodec.checkFrameLength(-5, 100));
+        assertThrows(IOException.class, () -> BinaryFrameCodec.checkFrameLength(101, 100));
+    }
+
+    @Test
+    void rejectsObjectsOutsideTheProtocol() {
+        assertThrows(IllegalArgumentException.class, () -> BinaryFrameCodec.encode(42));
+    }
+
+    private static Object roundTrip(Object frame) throws IOException {
+        Object decoded = decodeFrame(BinaryFrameCodec.encode(frame));
+        assertInstanceOf(frame.getClass(), decoded);
+        return decoded;
+    }
+
+    // Decodes a complete frame, checking its length prefix like the channels do
+    private static Object decodeFrame(byte[] frame) throws IOException {
+        int length = ((frame[0] & 0xFF) << 24) | ((frame[1] & 0xFF) << 16) | ((frame[2] & 0xFF) << 8) | (frame[3] & 0xFF);
+        BinaryFrameCodec.checkFrameLength(length);
+        assertEquals(frame.length - BinaryFrameCodec.HEADER_LENGTH, length);
+        return BinaryFrameCodec.decode(frame, BinaryFrameCodec.HEADER_LENGTH, length);
+    }
+
+    private static Message sampleMessage(String sender, String recipient) {
+        Message msg = new Message(sender, recipient == null ? "hello" : "@" + recipient + " hello", recipient, "hello");
+        ErrorCorrectingCode ecc = ErrorCorrectingCodes.forName(ErrorCorrectingCodes.SECDED_8_4);
+        byte[] payload = {10, 20, 30, 40};
+        BitBuffer encoded = ecc.encode(payload);
+        BitBuffer errored = encoded.copy();
+        errored.flip(3);
+        msg.setCipher(Message.CIPHER_AES_GCM);
+        msg.setEncryptedContentBase64("ChQeKA==");
+        msg.setEccScheme(ecc.getName());
+        msg.setPayloadLength(payload.length);
+        msg.setHammingEncoded(encoded);
+        msg.setErroredHamming(errored);
+        msg.setFinalDecryptedContent("hello");
+        msg.setTraceId(42);
+        msg.setErrorDetected(true);
+        msg.setErrorCorrected(true);
+        msg.setCompressed(true);
+        return msg;
+    }
+}
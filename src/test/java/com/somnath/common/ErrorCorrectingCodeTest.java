@@ -0,0 +1,146 @@
+package com.somnath.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ErrorCorrectingCodeTest {
+
+    private static final ErrorCorrectingCode HAMMING_7_4 = ErrorCorrectingCodes.forName(ErrorCorrectingCodes.HAMMING_7_4);
+    private static final ErrorCorrectingCode SECDED_8_4 = ErrorCorrectingCodes.forName(ErrorCorrectingCodes.SECDED_8_4);
+    private static final ErrorCorrectingCode SECDED_72_64 = ErrorCorrectingCodes.forName(ErrorCorrectingCodes.SECDED_72_64);
+
+    @Test
+    void blockSizes() {
+        assertEquals(7, HAMMING_7_4.getBlockBits());
+        assertEquals(4, HAMMING_7_4.getDataBitsPerBlock());
+        assertEquals(8, SECDED_8_4.getBlockBits());
+        assertEquals(4, SECDED_8_4.getDataBitsPerBlock());
+        assertEquals(72, SECDED_72_64.getBlockBits());
+        assertEquals(64, SECDED_72_64.getDataBitsPerBlock());
+    }
+
+    @Test
+    void cleanCodewordsDecodeUnchanged() {
+        for (ErrorCorrectingCode code : new ErrorCorrectingCode[] {HAMMING_7_4, SECDED_8_4, SECDED_72_64}) {
+            byte[] data = randomBytes(37);
+            BitBuffer codeword = code.encode(data);
+
+            CorrectionResult result = code.correctBlocks(codeword, 0, code.blockCount(codeword));
+
+            assertFalse(result.isErrorDetected(), code.getName());
+            assertArrayEquals(data, code.decode(codeword, data.length), code.getName());
+        }
+    }
+
+    @Test
+    void correctsEverySingleBitErrorPosition() {
+        for (ErrorCorrectingCode code : new ErrorCorrectingCode[] {HAMMING_7_4, SECDED_8_4, SECDED_72_64}) {
+            byte[] data = randomBytes(16);
+            BitBuffer clean = code.encode(data);
+            for (int bit = 0; bit < code.getBlockBits(); bit++) {
+                BitBuffer codeword = clean.copy();
+                codeword.flip(code.getBlockBits() + bit); // Second block
+
+                CorrectionResult result = code.correctBlocks(codeword, 0, code.blockCount(codeword));
+
+                assertEquals(1, result.getCorrectedBlocks(), code.getName() + " bit " + bit);
+                assertEquals(0, result.getUncorrectableBlocks(), code.getName() + " bit " + bit);
+                assertEquals(clean, codeword, code.getName() + " bit " + bit);
+            }
+        }
+    }
+
+    @Test
+    void correctsOneErrorInEachOfSeveralBlocks() {
+        for (ErrorCorrectingCode code : new ErrorCorrectingCode[] {HAMMING_7_4, SECDED_8_4, SECDED_72_64}) {
+            byte[] data = randomBytes(64);
+            BitBuffer codeword = code.encode(data);
+            int blocks = code.blockCount(codeword);
+            for (int block = 0; block < blocks; block += 3) {
+                codeword.flip(block * code.getBlockBits() + block % code.getBlockBits());
+            }
+
+            CorrectionResult result = code.correctBlocks(codeword, 0, blocks);
+
+            assertEquals((blocks + 2) / 3, result.getCorrectedBlocks(), code.getName());
+            assertArrayEquals(data, code.decode(codeword, data.length), code.getName());
+        }
+    }
+
+    @Test
+    void secdedDetectsDoubleBitErrorsWithoutTouchingTheBlock() {
+        for (ErrorCorrectingCode code : new ErrorCorrectingCode[] {SECDED_8_4, SECDED_72_64}) {
+            BitBuffer codeword = code.encode(randomBytes(16));
+            codeword.flip(1);
+            codeword.flip(5);
+            BitBuffer damaged = codeword.copy();
+
+            CorrectionResult result = code.correctBlocks(codeword, 0, code.blockCount(codeword));
+
+            assertEquals(0, result.getCorrectedBlocks(), code.getName());
+            assertEquals(1, result.getUncorrectableBlocks(), code.getName());
+            assertEquals(damaged, codeword, code.getName());
+        }
+    }
+
+    @Test
+    void hamming74MiscorrectsDoubleBitErrors() {
+        // Hamming(7,4) has no overall parity bit: two flips look like one, and "correcting" it adds a third
+        byte[] data = randomBytes(4);
+        BitBuffer codeword = HAMMING_7_4.encode(data);
+        codeword.flip(0);
+        codeword.flip(1);
+
+        CorrectionResult result = HAMMING_7_4.correctBlocks(codeword, 0, HAMMING_7_4.blockCount(codeword));
+
+        assertEquals(1, result.getCorrectedBlocks());
+        assertEquals(0, result.getUncorrectableBlocks());
+        assertNotEquals(HAMMING_7_4.encode(data), codeword);
+    }
+
+    @Test
+    void correctErrorRecordsTheOutcomeOnTheMessage() {
+        byte[] data = randomBytes(8);
+        BitBuffer errored = SECDED_8_4.encode(data);
+        errored.flip(10);
+        Message corrected = new Message("alice", "hi", null, "hi");
+
+        BitBuffer result = SECDED_8_4.correctError(errored, corrected);
+
+        assertTrue(corrected.isErrorDetected());
+        assertTrue(corrected.isErrorCorrected());
+        assertFalse(corrected.isErrorUncorrectable());
+        assertArrayEquals(data, SECDED_8_4.decode(result, data.length));
+        assertNotEquals(errored, result); // The input is left as it was
+
+        errored.flip(11);
+        Message uncorrectable = new Message("alice", "hi", null, "hi");
+        SECDED_8_4.correctError(errored, uncorrectable);
+
+        assertTrue(uncorrectable.isErrorDetected());
+        assertFalse(uncorrectable.isErrorCorrected());
+        assertTrue(uncorrectable.isErrorUncorrectable());
+    }
+
+    @Test
+    void secded72PadsTheLastBlock() {
+        byte[] data = randomBytes(13); // Not a multiple of 8 bytes
+        BitBuffer codeword = SECDED_72_64.encode(data);
+
+        assertEquals(2 * 72, codeword.length());
+        assertArrayEquals(data, SECDED_72_64.decode(codeword, data.length));
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+}
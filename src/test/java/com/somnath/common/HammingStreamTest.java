@@ -0,0 +1,112 @@
+package com.somnath.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class HammingStreamTest {
+
+    @Test
+    void roundTripAcrossSeveralChunks() throws IOException {
+        byte[] data = randomBytes(3 * HammingOutputStream.DEFAULT_CHUNK_SIZE + 3); // Ends in a partial group
+
+        byte[] encoded = encode(data, false);
+
+        assertEquals(data.length / 4 * 7 + 6, encoded.length);
+        assertArrayEquals(data, decode(encoded, HammingOutputStream.DEFAULT_CHUNK_SIZE));
+        assertArrayEquals(data, decode(encoded, 100)); // Reader chunks need not match the writer's
+    }
+
+    @Test
+    void correctsTheSimulatedErrors() throws IOException {
+        byte[] data = randomBytes(5 * HammingOutputStream.DEFAULT_CHUNK_SIZE + 1);
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        HammingOutputStream out = new HammingOutputStream(sink, true);
+        out.write(data);
+        out.close();
+
+        HammingInputStream in = new HammingInputStream(new ByteArrayInputStream(sink.toByteArray()));
+        byte[] decoded = in.readAllBytes();
+
+        assertArrayEquals(data, decoded);
+        assertEquals(6, out.getInjectedErrorCount()); // One per chunk, including the partial last one
+        assertEquals(out.getInjectedErrorCount(), in.getCorrectedBlockCount());
+    }
+
+    @Test
+    void singleByteWritesAndReadsMatchBulkOnes() throws IOException {
+        byte[] data = randomBytes(1001);
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        try (HammingOutputStream out = new HammingOutputStream(sink, 8, false)) {
+            for (byte b : data) {
+                out.write(b);
+            }
+        }
+
+        assertArrayEquals(encode(data, false), sink.toByteArray());
+
+        InputStream in = new HammingInputStream(new ByteArrayInputStream(sink.toByteArray()), 8);
+        byte[] decoded = new byte[data.length];
+        for (int i = 0; i < decoded.length; i++) {
+            decoded[i] = (byte) in.read();
+        }
+        assertArrayEquals(data, decoded);
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    void flushHoldsBackAPartialGroup() throws IOException {
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        HammingOutputStream out = new HammingOutputStream(sink);
+
+        out.write(new byte[] {1, 2, 3, 4, 5});
+        out.flush();
+
+        assertEquals(7, sink.size()); // Only the first whole group
+        out.close();
+        assertEquals(7 + 2, sink.size());
+    }
+
+    @Test
+    void rejectsTruncatedStream() throws IOException {
+        byte[] encoded = encode(randomBytes(8), false);
+        byte[] truncated = Arrays.copyOf(encoded, 7 + 1); // A partial group is always an even number of bytes
+
+        assertThrows(IOException.class, () -> decode(truncated, HammingOutputStream.DEFAULT_CHUNK_SIZE));
+    }
+
+    @Test
+    void rejectsChunkSizesThatSplitAGroup() {
+        assertThrows(IllegalArgumentException.class, () -> new HammingOutputStream(new ByteArrayOutputStream(), 6, false));
+        assertThrows(IllegalArgumentException.class, () -> new HammingInputStream(new ByteArrayInputStream(new byte[0]), 0));
+    }
+
+    private static byte[] encode(byte[] data, boolean simulateErrors) throws IOException {
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        try (HammingOutputStream out = new HammingOutputStream(sink, simulateErrors)) {
+            out.write(data);
+        }
+        return sink.toByteArray();
+    }
+
+    private static byte[] decode(byte[] encoded, int chunkSize) throws IOException {
+        try (InputStream in = new HammingInputStream(new ByteArrayInputStream(encoded), chunkSize)) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,82 @@
+package com.somnath.common;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LatencyHistogramTest {
+
+    @Test
+    void emptyHistogramReportsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentileNanos(0.99));
+        assertEquals(0, histogram.getMeanNanos());
+    }
+
+    @Test
+    void smallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 10; i++) {
+            histogram.record(i);
+        }
+
+        assertEquals(4, histogram.getPercentileNanos(0.5));
+        assertEquals(9, histogram.getPercentileNanos(1.0));
+        assertEquals(4.5, histogram.getMeanNanos());
+    }
+
+    @Test
+    void percentilesAreWithinOneSubBucket() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 100_000; i++) {
+            histogram.record(i * 1000);
+        }
+
+        for (double quantile : new double[] {0.5, 0.9, 0.99, 0.999}) {
+            long exact = (long) Math.ceil(quantile * 100_000) * 1000;
+            long reported = histogram.getPercentileNanos(quantile);
+            assertTrue(reported >= exact, quantile + ": " + reported + " < " + exact);
+            assertTrue(reported <= exact + exact / 16, quantile + ": " + reported + " more than 1/16 above " + exact);
+        }
+    }
+
+    @Test
+    void percentilesNeverExceedTheMaximum() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1_000);
+        histogram.record(1_001);
+
+        assertEquals(1_001, histogram.getMaxNanos());
+        assertEquals(1_001, histogram.getPercentileNanos(1.0));
+        assertTrue(histogram.getPercentileNanos(0.5) >= 1_000);
+    }
+
+    @Test
+    void percentilesAreMonotonic() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value < 10_000_000; value = value * 3 + 1) {
+            histogram.record(value);
+        }
+
+        long previous = 0;
+        for (int percent = 1; percent <= 100; percent++) {
+            long current = histogram.getPercentileNanos(percent / 100.0);
+            assertTrue(current >= previous, "p" + percent);
+            previous = current;
+        }
+    }
+
+    @Test
+    void negativeAndHugeValuesAreClamped() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE / 2);
+
+        assertEquals(0, histogram.getPercentileNanos(0.5));
+        assertEquals((1L << 43) - 1, histogram.getPercentileNanos(1.0)); // Upper bound of the last bucket
+        assertEquals(2, histogram.getCount());
+    }
+}
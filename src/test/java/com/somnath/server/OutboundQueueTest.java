@@ -0,0 +1,117 @@
+package com.somnath.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OutboundQueueTest {
+
+    private final MemoryBudget budget = new MemoryBudget(0);
+
+    private OutboundQueue<String> queue(int capacity, OverflowPolicy policy) {
+        return new OutboundQueue<>(capacity, 0, String::length, budget, policy);
+    }
+
+    @Test
+    void dropOldestMakesRoomByDiscardingTheOldestFrame() {
+        OutboundQueue<String> queue = queue(2, OverflowPolicy.DROP_OLDEST);
+
+        assertTrue(queue.offer("a"));
+        assertTrue(queue.offer("bb"));
+        assertTrue(queue.offer("ccc"));
+
+        assertEquals(1, queue.getDroppedCount());
+        assertEquals(5, queue.getBytes());
+        assertEquals("bb", queue.poll());
+        assertEquals("ccc", queue.poll());
+        assertNull(queue.poll());
+        assertEquals(0, budget.getUsed());
+    }
+
+    @Test
+    void disconnectClosesTheQueueAndReleasesItsBytes() {
+        OutboundQueue<String> queue = queue(2, OverflowPolicy.DISCONNECT);
+
+        assertTrue(queue.offer("a"));
+        assertTrue(queue.offer("bb"));
+        assertFalse(queue.offer("ccc"));
+
+        assertTrue(queue.isClosed());
+        assertTrue(queue.isEmpty());
+        assertEquals(3, queue.getDroppedCount());
+        assertEquals(0, budget.getUsed());
+        assertFalse(queue.offer("d"));
+    }
+
+    @Test
+    void blockWaitsForTheWriterToMakeRoom() throws Exception {
+        OutboundQueue<String> queue = queue(1, OverflowPolicy.BLOCK);
+        assertTrue(queue.offer("a"));
+
+        CompletableFuture<Boolean> blocked = CompletableFuture.supplyAsync(() -> queue.offer("b"));
+        assertThrows(TimeoutException.class, () -> blocked.get(100, TimeUnit.MILLISECONDS));
+
+        assertEquals("a", queue.take());
+        assertTrue(blocked.get(5, TimeUnit.SECONDS));
+        assertEquals("b", queue.take());
+        assertEquals(0, queue.getDroppedCount());
+    }
+
+    @Test
+    void blockGivesUpWhenTheQueueCloses() throws Exception {
+        OutboundQueue<String> queue = queue(1, OverflowPolicy.BLOCK);
+        assertTrue(queue.offer("a"));
+
+        CompletableFuture<Boolean> blocked = CompletableFuture.supplyAsync(() -> queue.offer("b"));
+        assertThrows(TimeoutException.class, () -> blocked.get(100, TimeUnit.MILLISECONDS));
+        queue.discard();
+
+        assertFalse(blocked.get(5, TimeUnit.SECONDS));
+        assertEquals(0, budget.getUsed());
+    }
+
+    @Test
+    void maxBytesCountsAsFullButAnEmptyQueueTakesAnyFrame() {
+        OutboundQueue<String> queue = new OutboundQueue<>(10, 4, String::length, budget, OverflowPolicy.DROP_OLDEST);
+
+        assertTrue(queue.offer("abcdef")); // Larger than the cap, but the queue was empty
+        assertTrue(queue.offer("xy"));
+
+        assertEquals(1, queue.getDroppedCount());
+        assertEquals("xy", queue.poll());
+    }
+
+    @Test
+    void serverBudgetIsSharedAcrossQueues() {
+        MemoryBudget shared = new MemoryBudget(5);
+        OutboundQueue<String> first = new OutboundQueue<>(10, 0, String::length, shared, OverflowPolicy.DROP_OLDEST);
+        OutboundQueue<String> second = new OutboundQueue<>(10, 0, String::length, shared, OverflowPolicy.DROP_OLDEST);
+
+        assertTrue(first.offer("abcd"));
+        assertTrue(second.offer("xy")); // No room left and nothing of its own to give up: dropped
+
+        assertEquals(1, second.getDroppedCount());
+        assertTrue(second.isEmpty());
+        assertEquals(4, shared.getUsed());
+    }
+
+    @Test
+    void offerIfRoomNeverDropsOrWaits() {
+        OutboundQueue<String> queue = queue(1, OverflowPolicy.BLOCK);
+
+        assertTrue(queue.offerIfRoom("a"));
+        assertFalse(queue.offerIfRoom("b"));
+
+        assertEquals(0, queue.getDroppedCount());
+        assertEquals("a", queue.poll());
+        assertTrue(queue.offerIfRoom("b"));
+    }
+}